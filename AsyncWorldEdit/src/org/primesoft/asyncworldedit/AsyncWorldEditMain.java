@@ -50,11 +50,13 @@ import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.primesoft.asyncworldedit.blockPlacer.BlockPlacer;
+import org.primesoft.asyncworldedit.blockPlacer.JobJournal;
 import org.primesoft.asyncworldedit.commands.*;
 import org.primesoft.asyncworldedit.configuration.ConfigProvider;
 import org.primesoft.asyncworldedit.injector.InjectorBukkit;
 import org.primesoft.asyncworldedit.injector.async.AsyncClassFactory;
 import org.primesoft.asyncworldedit.injector.core.InjectorCore;
+import org.primesoft.asyncworldedit.injector.schematic.SchematicCache;
 import org.primesoft.asyncworldedit.mcstats.MetricsLite;
 import org.primesoft.asyncworldedit.permissions.Permission;
 import org.primesoft.asyncworldedit.playerManager.PlayerEntry;
@@ -65,7 +67,9 @@ import org.primesoft.asyncworldedit.strings.MessageProvider;
 import org.primesoft.asyncworldedit.strings.MessageType;
 import org.primesoft.asyncworldedit.taskdispatcher.TaskDispatcher;
 import org.primesoft.asyncworldedit.utils.ExceptionHelper;
+import org.primesoft.asyncworldedit.utils.WorkerPool;
 import org.primesoft.asyncworldedit.worldedit.WorldeditIntegrator;
+import org.primesoft.asyncworldedit.worldedit.history.UndoHistoryStore;
 
 import java.io.IOException;
 import java.util.logging.Level;
@@ -96,7 +100,10 @@ public class AsyncWorldEditMain extends JavaPlugin implements IAsyncWorldEdit {
     private final EventListener m_listener = new EventListener(this);
     private final PhysicsWatch m_physicsWatcher = new PhysicsWatch();
     private final ChunkWatch m_chunkWatch = new ChunkWatch();
+    private final ChunkSnapshotCache m_chunkCache = new ChunkSnapshotCache();
     private BlockPlacer m_blockPlacer;
+    private JobJournal m_jobJournal;
+    private UndoHistoryStore m_undoHistory;
     private TaskDispatcher m_dispatcher;
     private WorldeditIntegrator m_weIntegrator;
     private IPlotMeFix m_plotMeFix;
@@ -117,6 +124,10 @@ public class AsyncWorldEditMain extends JavaPlugin implements IAsyncWorldEdit {
         return m_chunkWatch;
     }
 
+    public ChunkSnapshotCache getChunkCache() {
+        return m_chunkCache;
+    }
+
     public IPlotMeFix getPlotMeFix() {
         return m_plotMeFix;
     }
@@ -135,6 +146,14 @@ public class AsyncWorldEditMain extends JavaPlugin implements IAsyncWorldEdit {
         return m_blockPlacer;
     }
 
+    public JobJournal getJobJournal() {
+        return m_jobJournal;
+    }
+
+    public UndoHistoryStore getUndoHistory() {
+        return m_undoHistory;
+    }
+
     @Override
     public ITaskDispatcher getTaskDispatcher() {
         return m_dispatcher;
@@ -219,11 +238,16 @@ public class AsyncWorldEditMain extends JavaPlugin implements IAsyncWorldEdit {
         
         m_blocksHub = new BlocksHubIntegration(this);
         m_blockPlacer = new BlockPlacer(this);
+        m_blocksHub.initialize(m_blockPlacer);
         m_dispatcher = new TaskDispatcher(this);
+        m_jobJournal = new JobJournal(this);
+        m_jobJournal.initialize(m_blockPlacer);
+        m_undoHistory = new UndoHistoryStore(this, worldEdit);
         setPlotMeFix(new NullFix());
 
         m_aweInjector = getAWEInjector(this);
         m_aweInjector.setClassFactory(new AsyncClassFactory(this));
+        SchematicCache.getInstance().setMaxSize(ConfigProvider.getSchematicCacheSize() * 1024L * 1024L);
 
         if (ConfigProvider.getCheckUpdate()) {
             log(VersionChecker.CheckVersion(desc.getVersion()));
@@ -244,6 +268,7 @@ public class AsyncWorldEditMain extends JavaPlugin implements IAsyncWorldEdit {
         pm.registerEvents(m_listener, this);
         pm.registerEvents(m_physicsWatcher, this);
         pm.registerEvents(m_chunkWatch, this);
+        pm.registerEvents(m_chunkCache, this);
 
         m_isInitialized = true;
         m_playerManager.initalize();
@@ -270,10 +295,16 @@ public class AsyncWorldEditMain extends JavaPlugin implements IAsyncWorldEdit {
 
     @Override
     public void onDisable() {
+        m_undoHistory.storeAll();
         m_blockPlacer.stop();
+        m_blocksHub.stop();
+        m_jobJournal.close();
         m_dispatcher.stop();
         m_weIntegrator.queueStop();
         m_chunkWatch.clear();
+        m_chunkCache.clear();
+        SchematicCache.getInstance().clear();
+        WorkerPool.stop();
         log("Disabled");
     }
 
@@ -357,6 +388,7 @@ public class AsyncWorldEditMain extends JavaPlugin implements IAsyncWorldEdit {
         }
         if (reloadConfig) {
             m_blockPlacer.loadConfig();
+            m_chunkCache.clear();
 
             if (ConfigProvider.isPhysicsFreezEnabled()) {
                 m_physicsWatcher.Enable();
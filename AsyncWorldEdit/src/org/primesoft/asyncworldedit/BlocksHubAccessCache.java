@@ -0,0 +1,188 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.primesoft.asyncworldedit.api.blockPlacer.IBlockPlacerListener;
+import org.primesoft.asyncworldedit.blockPlacer.entries.JobEntry;
+import org.primesoft.asyncworldedit.playerManager.PlayerEntry;
+
+/**
+ * Block access cache. The first check in a chunk section tests the section
+ * corners and center. If none of them is allowed the whole section is denied
+ * for the running jobs of the player and the access plugins are not called
+ * again for it, all other sections are checked block by block. Only denied
+ * sections are cached, so the cache never allows a block that the access
+ * plugins deny. Accuracy limit: an allowed area that lies inside a section
+ * and contains none of the tested points is denied as well. The cached
+ * entries are removed when a player job finishes.
+ *
+ * @author SBPrime
+ */
+public class BlocksHubAccessCache implements IBlockPlacerListener {
+
+    /**
+     * The tested section points (corners and center)
+     */
+    private final static int[][] SAMPLES = new int[][]{
+        {0, 0, 0}, {15, 0, 0}, {0, 0, 15}, {15, 0, 15},
+        {0, 15, 0}, {15, 15, 0}, {0, 15, 15}, {15, 15, 15},
+        {8, 8, 8}
+    };
+
+    /**
+     * The blocks hub integration
+     */
+    private final BlocksHubIntegration m_blocksHub;
+
+    /**
+     * Evaluated sections for each player and world, true if the whole section
+     * is denied
+     */
+    private final ConcurrentHashMap<PlayerEntry, ConcurrentHashMap<String, ConcurrentHashMap<Long, Boolean>>> m_cache
+            = new ConcurrentHashMap<PlayerEntry, ConcurrentHashMap<String, ConcurrentHashMap<Long, Boolean>>>();
+
+    public BlocksHubAccessCache(BlocksHubIntegration blocksHub) {
+        m_blocksHub = blocksHub;
+    }
+
+    /**
+     * Check if the player can place block
+     *
+     * @param player
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public boolean canPlace(PlayerEntry player, World world, int x, int y, int z) {
+        int cx = x >> 4;
+        int sy = y >> 4;
+        int cz = z >> 4;
+        Long key = ((long) (cx & 0x3ffffff) << 34) | ((long) (cz & 0x3ffffff) << 8) | (sy & 0xff);
+
+        ConcurrentHashMap<Long, Boolean> sections = getSections(player, world.getName());
+        Boolean denied = sections.get(key);
+        if (denied == null) {
+            denied = isDenied(player, world, cx << 4, sy << 4, cz << 4);
+            sections.put(key, denied);
+        }
+
+        if (denied) {
+            return false;
+        }
+
+        return m_blocksHub.canPlace(player, world, new Location(world, x, y, z));
+    }
+
+    /**
+     * Remove all cached entries
+     */
+    public void clear() {
+        m_cache.clear();
+    }
+
+    @Override
+    public void jobAdded(JobEntry job) {
+    }
+
+    @Override
+    public void jobRemoved(JobEntry job) {
+        if (job == null) {
+            return;
+        }
+
+        m_cache.remove(job.getPlayer());
+    }
+
+    /**
+     * Check if none of the tested section points is allowed
+     *
+     * @param player
+     * @param world
+     * @param x section minimum x
+     * @param y section minimum y
+     * @param z section minimum z
+     * @return
+     */
+    private boolean isDenied(PlayerEntry player, World world, int x, int y, int z) {
+        for (int[] sample : SAMPLES) {
+            if (m_blocksHub.canPlace(player, world,
+                    new Location(world, x + sample[0], y + sample[1], z + sample[2]))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the player sections cache
+     *
+     * @param player
+     * @param worldName
+     * @return
+     */
+    private ConcurrentHashMap<Long, Boolean> getSections(PlayerEntry player, String worldName) {
+        ConcurrentHashMap<String, ConcurrentHashMap<Long, Boolean>> worlds = m_cache.get(player);
+        if (worlds == null) {
+            worlds = new ConcurrentHashMap<String, ConcurrentHashMap<Long, Boolean>>();
+            ConcurrentHashMap<String, ConcurrentHashMap<Long, Boolean>> old = m_cache.putIfAbsent(player, worlds);
+            if (old != null) {
+                worlds = old;
+            }
+        }
+
+        ConcurrentHashMap<Long, Boolean> sections = worlds.get(worldName);
+        if (sections == null) {
+            sections = new ConcurrentHashMap<Long, Boolean>();
+            ConcurrentHashMap<Long, Boolean> old = worlds.putIfAbsent(worldName, sections);
+            if (old != null) {
+                sections = old;
+            }
+        }
+
+        return sections;
+    }
+}
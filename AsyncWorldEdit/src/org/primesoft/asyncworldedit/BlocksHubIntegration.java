@@ -50,6 +50,7 @@ import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.primesoft.asyncworldedit.api.blockPlacer.IBlockPlacer;
 import org.primesoft.asyncworldedit.utils.ExceptionHelper;
 
 /**
@@ -60,6 +61,8 @@ public class BlocksHubIntegration {
 
     private final boolean m_isInitialized;
     private final IBlocksHubApi m_blocksApi;
+    private final BlocksHubAccessCache m_accessCache;
+    private final BlocksHubLogger m_logger;
 
     /**
      * Get instance of the core blocks hub plugin
@@ -87,6 +90,31 @@ public class BlocksHubIntegration {
         BlocksHub bh = getBlocksHub(plugin);
         m_blocksApi = bh != null ? bh.getApi() : null;
         m_isInitialized = m_blocksApi != null && m_blocksApi.getVersion() >= 1.0;
+        m_accessCache = new BlocksHubAccessCache(this);
+        m_logger = m_isInitialized && ConfigProvider.getLogQueueSize() > 0
+                ? new BlocksHubLogger(this, ConfigProvider.getLogQueueSize(), ConfigProvider.getLogOverflow())
+                : null;
+    }
+
+    /**
+     * Register the access cache in the block placer
+     *
+     * @param blockPlacer
+     */
+    public void initialize(IBlockPlacer blockPlacer) {
+        blockPlacer.addListener(m_accessCache);
+        if (m_logger != null) {
+            m_logger.start();
+        }
+    }
+
+    /**
+     * Stop the block logger, the buffered blocks are logged
+     */
+    public void stop() {
+        if (m_logger != null) {
+            m_logger.stop();
+        }
     }
 
     public void logBlock(PlayerEntry playerEntry, World world, Location location,
@@ -134,6 +162,11 @@ public class BlocksHubIntegration {
         if (!ConfigProvider.getCheckAccess()) {
             return true;
         }
+        if (m_isInitialized && playerEntry != null && world != null
+                && ConfigProvider.getCacheAccess()) {
+            return m_accessCache.canPlace(playerEntry, world,
+                    location.getBlockX(), location.getBlockY(), location.getBlockZ());
+        }
         
         
         Location l = new Location(world, location.getX(), location.getY(), location.getZ());               
@@ -166,6 +199,12 @@ public class BlocksHubIntegration {
         if (newBlock == null) {
             newBlock = new BaseBlock(0);
         }
+        if (m_logger != null) {
+            if (playerEntry != null) {
+                m_logger.log(playerEntry, world, location, oldBlock, newBlock);
+            }
+            return;
+        }
 
         Location l = new Location(world, location.getX(), location.getY(), location.getZ());
         try {
@@ -0,0 +1,322 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.primesoft.asyncworldedit.playerManager.PlayerEntry;
+import org.primesoft.asyncworldedit.utils.ExceptionHelper;
+
+/**
+ * Buffered block logger. The placed blocks are stored as compact records in a
+ * ring buffer and a background thread sends them to BlocksHub in batches.
+ *
+ * @author SBPrime
+ */
+public class BlocksHubLogger implements Runnable {
+
+    /**
+     * What to do when the buffer is full
+     */
+    public enum OverflowMode {
+
+        /**
+         * Wait for the logger thread to free space, the server thread never
+         * waits and logs the block directly
+         */
+        Wait,
+        /**
+         * Log the block directly in the calling thread
+         */
+        Direct,
+        /**
+         * Drop the record
+         */
+        Drop
+    }
+
+    /**
+     * Maximum number of records sent in one batch
+     */
+    private final static int BATCH_SIZE = 1024;
+
+    /**
+     * Number of dropped records between the warnings
+     */
+    private final static int DROP_WARNING = 10000;
+
+    /**
+     * The blocks hub integration
+     */
+    private final BlocksHubIntegration m_blocksHub;
+
+    /**
+     * The overflow mode
+     */
+    private final OverflowMode m_overflowMode;
+
+    /**
+     * The buffer mutex
+     */
+    private final Object m_mutex = new Object();
+
+    private final PlayerEntry[] m_players;
+    private final World[] m_worlds;
+    private final int[] m_x;
+    private final int[] m_y;
+    private final int[] m_z;
+    private final int[] m_oldBlocks;
+    private final int[] m_newBlocks;
+
+    /**
+     * The first record
+     */
+    private int m_head;
+
+    /**
+     * Number of records in the buffer
+     */
+    private int m_size;
+
+    /**
+     * Number of dropped records
+     */
+    private long m_dropped;
+
+    /**
+     * Is the logger running
+     */
+    private boolean m_isRunning;
+
+    /**
+     * The logger thread
+     */
+    private Thread m_thread;
+
+    public BlocksHubLogger(BlocksHubIntegration blocksHub, int capacity, OverflowMode overflowMode) {
+        m_blocksHub = blocksHub;
+        m_overflowMode = overflowMode;
+
+        m_players = new PlayerEntry[capacity];
+        m_worlds = new World[capacity];
+        m_x = new int[capacity];
+        m_y = new int[capacity];
+        m_z = new int[capacity];
+        m_oldBlocks = new int[capacity];
+        m_newBlocks = new int[capacity];
+    }
+
+    /**
+     * Start the logger thread
+     */
+    public void start() {
+        synchronized (m_mutex) {
+            if (m_thread != null) {
+                return;
+            }
+
+            m_isRunning = true;
+            m_thread = new Thread(this, "AWE block logger");
+            m_thread.setDaemon(true);
+            m_thread.start();
+        }
+    }
+
+    /**
+     * Stop the logger thread, the buffered records are logged
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (m_mutex) {
+            thread = m_thread;
+            m_thread = null;
+            m_isRunning = false;
+            m_mutex.notifyAll();
+        }
+
+        if (thread == null) {
+            return;
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Add the block change to the buffer
+     *
+     * @param player
+     * @param world
+     * @param location
+     * @param oldBlock
+     * @param newBlock
+     */
+    public void log(PlayerEntry player, World world, Vector location,
+            BaseBlock oldBlock, BaseBlock newBlock) {
+        int oldId = (oldBlock.getType() << 4) | (oldBlock.getData() & 0xf);
+        int newId = (newBlock.getType() << 4) | (newBlock.getData() & 0xf);
+        int capacity = m_players.length;
+        OverflowMode overflowMode = m_overflowMode == OverflowMode.Wait && Bukkit.isPrimaryThread()
+                ? OverflowMode.Direct : m_overflowMode;
+
+        synchronized (m_mutex) {
+            while (m_isRunning && m_size >= capacity) {
+                if (overflowMode == OverflowMode.Drop) {
+                    m_dropped++;
+                    if (m_dropped % DROP_WARNING == 1) {
+                        AsyncWorldEditMain.log("Warning: block logger buffer full, " + m_dropped + " records dropped.");
+                    }
+                    return;
+                } else if (overflowMode == OverflowMode.Direct) {
+                    break;
+                }
+
+                try {
+                    m_mutex.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            if (m_isRunning && m_size < capacity) {
+                int idx = (m_head + m_size) % capacity;
+                m_players[idx] = player;
+                m_worlds[idx] = world;
+                m_x[idx] = location.getBlockX();
+                m_y[idx] = location.getBlockY();
+                m_z[idx] = location.getBlockZ();
+                m_oldBlocks[idx] = oldId;
+                m_newBlocks[idx] = newId;
+                m_size++;
+                m_mutex.notifyAll();
+                return;
+            }
+        }
+
+        logBlock(player, world, location.getBlockX(), location.getBlockY(), location.getBlockZ(), oldId, newId);
+    }
+
+    @Override
+    public void run() {
+        PlayerEntry[] players = new PlayerEntry[BATCH_SIZE];
+        World[] worlds = new World[BATCH_SIZE];
+        int[] x = new int[BATCH_SIZE];
+        int[] y = new int[BATCH_SIZE];
+        int[] z = new int[BATCH_SIZE];
+        int[] oldBlocks = new int[BATCH_SIZE];
+        int[] newBlocks = new int[BATCH_SIZE];
+
+        while (true) {
+            int count;
+            synchronized (m_mutex) {
+                while (m_isRunning && m_size == 0) {
+                    try {
+                        m_mutex.wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+
+                if (m_size == 0) {
+                    return;
+                }
+
+                int capacity = m_players.length;
+                count = Math.min(BATCH_SIZE, m_size);
+                for (int i = 0; i < count; i++) {
+                    int idx = (m_head + i) % capacity;
+                    players[i] = m_players[idx];
+                    worlds[i] = m_worlds[idx];
+                    x[i] = m_x[idx];
+                    y[i] = m_y[idx];
+                    z[i] = m_z[idx];
+                    oldBlocks[i] = m_oldBlocks[idx];
+                    newBlocks[i] = m_newBlocks[idx];
+                    m_players[idx] = null;
+                    m_worlds[idx] = null;
+                }
+                m_head = (m_head + count) % capacity;
+                m_size -= count;
+                m_mutex.notifyAll();
+            }
+
+            for (int i = 0; i < count; i++) {
+                logBlock(players[i], worlds[i], x[i], y[i], z[i], oldBlocks[i], newBlocks[i]);
+                players[i] = null;
+                worlds[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Send the record to BlocksHub
+     *
+     * @param player
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     * @param oldBlock
+     * @param newBlock
+     */
+    private void logBlock(PlayerEntry player, World world, int x, int y, int z, int oldBlock, int newBlock) {
+        Location l = new Location(world, x, y, z);
+        try {
+            m_blocksHub.logBlock(player, world, l, oldBlock >> 4, (byte) (oldBlock & 0xf),
+                    newBlock >> 4, (byte) (newBlock & 0xf));
+        } catch (Exception ex) {
+            AsyncWorldEditMain.log("Error logging block: " + ex.toString());
+            AsyncWorldEditMain.log("Player: " + (player != null ? player.getName() : null));
+            AsyncWorldEditMain.log("World: " + world);
+            AsyncWorldEditMain.log("Location: " + l);
+
+            ExceptionHelper.printException(ex, "Error logging block.");
+        }
+    }
+}
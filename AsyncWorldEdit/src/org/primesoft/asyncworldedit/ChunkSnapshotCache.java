@@ -0,0 +1,388 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.primesoft.asyncworldedit.configuration.ConfigProvider;
+
+/**
+ * Chunk snapshot cache shared by all the async worlds. Each chunk has a
+ * version that is bumped when a block in the chunk is changed, cached
+ * snapshots taken for an older version are ignored. A snapshot is taken only
+ * for chunks that were not changed since the previous read, chunks that are
+ * read and written at the same time are read block by block. The least
+ * recently used snapshots are removed when the cache size limit is reached.
+ *
+ * @author SBPrime
+ */
+public class ChunkSnapshotCache implements Listener {
+
+    /**
+     * Maximum number of tracked chunk versions, when exceeded the whole cache
+     * is invalidated
+     */
+    private final static int MAX_VERSIONS = 65536;
+
+    /**
+     * Estimated size of a non empty chunk section (block ids, data and light)
+     */
+    private final static int SECTION_SIZE = 4096 * 2 + 2048 * 3;
+
+    /**
+     * Estimated size of the chunk snapshot without the sections
+     */
+    private final static int BASE_SIZE = 16 * 16 * 8 + 256;
+
+    /**
+     * The chunk key
+     */
+    private static class ChunkKey {
+
+        private final String m_world;
+
+        private final int m_cx;
+
+        private final int m_cz;
+
+        private ChunkKey(String world, int cx, int cz) {
+            m_world = world;
+            m_cx = cx;
+            m_cz = cz;
+        }
+
+        @Override
+        public int hashCode() {
+            return (m_world.hashCode() * 31 + m_cx) * 31 + m_cz;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ChunkKey)) {
+                return false;
+            }
+
+            ChunkKey other = (ChunkKey) obj;
+            return m_cx == other.m_cx && m_cz == other.m_cz && m_world.equals(other.m_world);
+        }
+    }
+
+    /**
+     * The cached snapshot
+     */
+    private static class Entry {
+
+        private final ChunkSnapshot m_snapshot;
+
+        private final long m_stamp;
+
+        private final long m_time;
+
+        private final long m_size;
+
+        private Entry(ChunkSnapshot snapshot, long stamp, long time, long size) {
+            m_snapshot = snapshot;
+            m_stamp = stamp;
+            m_time = time;
+            m_size = size;
+        }
+    }
+
+    /**
+     * The cache mutex
+     */
+    private final Object m_mutex = new Object();
+
+    /**
+     * The cached snapshots in access order
+     */
+    private final LinkedHashMap<ChunkKey, Entry> m_entries = new LinkedHashMap<ChunkKey, Entry>(16, 0.75f, true);
+
+    /**
+     * The chunk versions
+     */
+    private final HashMap<ChunkKey, Integer> m_versions = new HashMap<ChunkKey, Integer>();
+
+    /**
+     * The chunk stamps seen by the last read of each chunk
+     */
+    private final HashMap<ChunkKey, Long> m_readStamps = new HashMap<ChunkKey, Long>();
+
+    /**
+     * The cache generation, bumped when all the versions are dropped
+     */
+    private int m_generation;
+
+    /**
+     * The estimated size of the cached snapshots
+     */
+    private long m_size;
+
+    /**
+     * Is the cache enabled
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return ConfigProvider.isChunkCacheEnabled();
+    }
+
+    /**
+     * Get the cached chunk snapshot
+     *
+     * @param world
+     * @param cx
+     * @param cz
+     * @return null if the snapshot is not cached or is outdated
+     */
+    public ChunkSnapshot get(String world, int cx, int cz) {
+        ChunkKey key = new ChunkKey(world, cx, cz);
+        long maxAge = ConfigProvider.getChunkCacheMaxAge();
+
+        synchronized (m_mutex) {
+            Entry entry = m_entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+
+            if (entry.m_stamp != getStamp(key)
+                    || (maxAge >= 0 && System.currentTimeMillis() - entry.m_time > maxAge)) {
+                removeEntry(key);
+                return null;
+            }
+
+            return entry.m_snapshot;
+        }
+    }
+
+    /**
+     * Get the current chunk stamp (generation and version). Get the stamp
+     * before taking the snapshot.
+     *
+     * @param world
+     * @param cx
+     * @param cz
+     * @return
+     */
+    public long getStamp(String world, int cx, int cz) {
+        ChunkKey key = new ChunkKey(world, cx, cz);
+        synchronized (m_mutex) {
+            return getStamp(key);
+        }
+    }
+
+    /**
+     * Check if the chunk was not changed since its previous read and remember
+     * the stamp for the next read. Take the snapshot only for stable chunks.
+     *
+     * @param world
+     * @param cx
+     * @param cz
+     * @param stamp the current chunk stamp
+     * @return
+     */
+    public boolean checkStable(String world, int cx, int cz, long stamp) {
+        ChunkKey key = new ChunkKey(world, cx, cz);
+        synchronized (m_mutex) {
+            Long last = m_readStamps.put(key, stamp);
+            if (m_readStamps.size() > MAX_VERSIONS) {
+                clearAll();
+            }
+
+            return last == null || last == stamp;
+        }
+    }
+
+    /**
+     * Add the snapshot to the cache. The snapshot is ignored if the chunk was
+     * changed after the stamp was taken.
+     *
+     * @param world
+     * @param cx
+     * @param cz
+     * @param stamp
+     * @param snapshot
+     */
+    public void put(String world, int cx, int cz, long stamp, ChunkSnapshot snapshot) {
+        long maxSize = ConfigProvider.getChunkCacheSize() * 1024L * 1024L;
+        if (snapshot == null || maxSize <= 0) {
+            return;
+        }
+
+        ChunkKey key = new ChunkKey(world, cx, cz);
+        long size = estimateSize(snapshot);
+        synchronized (m_mutex) {
+            if (stamp != getStamp(key)) {
+                return;
+            }
+
+            removeEntry(key);
+            m_entries.put(key, new Entry(snapshot, stamp, System.currentTimeMillis(), size));
+            m_size += size;
+
+            Iterator<Map.Entry<ChunkKey, Entry>> it = m_entries.entrySet().iterator();
+            while (m_size > maxSize && it.hasNext()) {
+                m_size -= it.next().getValue().m_size;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Bump the chunk version
+     *
+     * @param world
+     * @param cx
+     * @param cz
+     */
+    public void invalidate(String world, int cx, int cz) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        ChunkKey key = new ChunkKey(world, cx, cz);
+        synchronized (m_mutex) {
+            Integer version = m_versions.get(key);
+            m_versions.put(key, version == null ? 1 : version + 1);
+            removeEntry(key);
+
+            if (m_versions.size() > MAX_VERSIONS) {
+                clearAll();
+            }
+        }
+    }
+
+    /**
+     * Remove all cached snapshots
+     */
+    public void clear() {
+        synchronized (m_mutex) {
+            clearAll();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        Block block = event.getBlock();
+        invalidate(block.getWorld().getName(), block.getX() >> 4, block.getZ() >> 4);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        Block block = event.getBlock();
+        invalidate(block.getWorld().getName(), block.getX() >> 4, block.getZ() >> 4);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        String world = event.getWorld().getName();
+        synchronized (m_mutex) {
+            for (Iterator<Map.Entry<ChunkKey, Entry>> it = m_entries.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<ChunkKey, Entry> entry = it.next();
+                if (entry.getKey().m_world.equals(world)) {
+                    m_size -= entry.getValue().m_size;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the chunk stamp, needs to be called in the mutex
+     *
+     * @param key
+     * @return
+     */
+    private long getStamp(ChunkKey key) {
+        Integer version = m_versions.get(key);
+        return ((long) m_generation << 32) | (version == null ? 0 : version);
+    }
+
+    /**
+     * Remove the cached entry, needs to be called in the mutex
+     *
+     * @param key
+     */
+    private void removeEntry(ChunkKey key) {
+        Entry old = m_entries.remove(key);
+        if (old != null) {
+            m_size -= old.m_size;
+        }
+    }
+
+    /**
+     * Drop all the entries and versions, needs to be called in the mutex
+     */
+    private void clearAll() {
+        m_entries.clear();
+        m_versions.clear();
+        m_readStamps.clear();
+        m_size = 0;
+        m_generation++;
+    }
+
+    /**
+     * Estimate the snapshot memory usage
+     *
+     * @param snapshot
+     * @return
+     */
+    private static long estimateSize(ChunkSnapshot snapshot) {
+        long size = BASE_SIZE;
+        for (int sy = 0; sy < 16; sy++) {
+            if (!snapshot.isSectionEmpty(sy)) {
+                size += SECTION_SIZE;
+            }
+        }
+
+        return size;
+    }
+}
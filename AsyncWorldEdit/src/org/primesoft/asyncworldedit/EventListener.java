@@ -50,9 +50,12 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.plugin.PluginDescriptionFile;
 import org.primesoft.asyncworldedit.playerManager.PlayerManager;
 import org.primesoft.asyncworldedit.strings.MessageType;
+import org.primesoft.asyncworldedit.worldedit.world.AsyncWorld;
 
 /**
  *
@@ -68,6 +71,7 @@ public class EventListener implements Listener {
     
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
+        m_parent.getUndoHistory().playerQuit(event.getPlayer());
         ((PlayerManager)m_parent.getPlayerManager()).removePlayer(event.getPlayer());
     }
     
@@ -97,4 +101,14 @@ public class EventListener implements Listener {
             entry.say(MessageType.CHECK_VERSION_CONFIG.format(AsyncWorldEditMain.getPrefix()));
         }
     }    
+
+    @EventHandler
+    public void onWorldLoad(WorldLoadEvent event) {
+        AsyncWorld.invalidateMetadata();
+    }
+
+    @EventHandler
+    public void onWorldUnload(WorldUnloadEvent event) {
+        AsyncWorld.invalidateMetadata();
+    }
 }
@@ -122,6 +122,14 @@ public interface IBlockPlacer {
      */
     BlockPlacerPlayer getPlayerEvents(PlayerEntry player);
 
+    /**
+     * Wait until the job player block queue is below the soft limit
+     *
+     * @param job
+     * @return False if the job was canceled or the thread interrupted
+     */
+    boolean waitForQueue(JobEntry job);
+
     /**
      * Is the blocks placer paused
      * @return
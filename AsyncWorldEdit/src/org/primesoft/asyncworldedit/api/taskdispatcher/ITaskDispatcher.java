@@ -141,6 +141,16 @@ public interface ITaskDispatcher {
      */
     <T> T performSafe(Object mutex, Func<T> action);
 
+    /**
+     * Perform operation on the main server thread and wait for the result.
+     * The result must not be null.
+     *
+     * @param <T>
+     * @param action
+     * @return
+     */
+    <T> T performSync(Func<T> action);
+
     /**
      * Set pause on task dispatcher placer
      *
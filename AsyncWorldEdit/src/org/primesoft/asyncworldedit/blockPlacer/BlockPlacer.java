@@ -342,7 +342,7 @@ public class BlockPlacer implements IBlockPlacer {
 
             if (entry != null) {
                 entry.process(this);
-                blocks++;
+                blocks += entry.getBlockCount();
 
                 process = !entry.isDemanding(); //Allow only one demanding task
                 process &= maxTime == -1 || (System.currentTimeMillis() - startTime) < maxTime;
@@ -387,9 +387,9 @@ public class BlockPlacer implements IBlockPlacer {
                             result = entry;
 
                             if (blocksPlaced.containsKey(player)) {
-                                blocksPlaced.put(player, blocksPlaced.get(player) + 1);
+                                blocksPlaced.put(player, blocksPlaced.get(player) + entry.getBlockCount());
                             } else {
-                                blocksPlaced.put(player, 1);
+                                blocksPlaced.put(player, entry.getBlockCount());
                             }
                         }
                     } else {
@@ -804,6 +804,33 @@ public class BlockPlacer implements IBlockPlacer {
         }
     }
 
+    /**
+     * Wait until the job player block queue is below the soft limit
+     *
+     * @param job
+     * @return False if the job was canceled or the thread interrupted
+     */
+    @Override
+    public boolean waitForQueue(JobEntry job) {
+        final PlayerEntry playerEntry = job.getPlayer();
+        final int softLimit = playerEntry.getPermissionGroup().getQueueSoftLimit();
+        while (job.getStatus() != JobEntry.JobStatus.Canceled) {
+            BlockPlacerPlayer entry = getPlayerEvents(playerEntry);
+            if (entry == null || entry.getQueue().size() < softLimit) {
+                return true;
+            }
+
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Gets the player message string
      *
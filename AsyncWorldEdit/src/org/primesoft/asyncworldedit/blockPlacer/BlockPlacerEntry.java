@@ -73,6 +73,14 @@ public abstract class BlockPlacerEntry {
     public int getJobId(){
         return m_jobId;
     }
+
+    /**
+     * Number of blocks placed by the entry, used by the renderer block limit
+     * @return 
+     */
+    public int getBlockCount() {
+        return 1;
+    }
     
     
     /**
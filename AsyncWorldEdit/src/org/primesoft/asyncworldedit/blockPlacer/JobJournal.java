@@ -0,0 +1,837 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.blockPlacer;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.UUID;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.primesoft.asyncworldedit.AsyncWorldEditMain;
+import org.primesoft.asyncworldedit.ChunkSnapshotCache;
+import org.primesoft.asyncworldedit.api.blockPlacer.IBlockPlacer;
+import org.primesoft.asyncworldedit.api.blockPlacer.IBlockPlacerListener;
+import org.primesoft.asyncworldedit.blockPlacer.entries.ActionEntry;
+import org.primesoft.asyncworldedit.blockPlacer.entries.JobEntry;
+import org.primesoft.asyncworldedit.configuration.ConfigProvider;
+import org.primesoft.asyncworldedit.playerManager.PlayerEntry;
+import org.primesoft.asyncworldedit.utils.Action;
+import org.primesoft.asyncworldedit.utils.ExceptionHelper;
+
+/**
+ * Journal of the queued blocks. Each job has its own set of files: the queued
+ * blocks, the old blocks of the placed blocks and a checkpoint with the number
+ * of records that are synced to disk. The records are written in batches by a
+ * background thread, the files are removed when the job is done. Jobs that did
+ * not finish are resumed or rolled back on the next plugin start up to the
+ * last checkpoint.
+ *
+ * @author SBPrime
+ */
+public class JobJournal implements IBlockPlacerListener, Runnable {
+
+    /**
+     * What to do with unfinished jobs
+     */
+    public enum RecoveryMode {
+
+        /**
+         * Place the remaining blocks
+         */
+        Resume,
+        /**
+         * Restore the old blocks
+         */
+        Rollback,
+        /**
+         * Drop the journal
+         */
+        Discard
+    }
+
+    private static final String FOLDER_JOURNAL = "journal";
+    private static final String EXT_CHECKPOINT = ".job";
+    private static final String EXT_QUEUED = ".queued";
+    private static final String EXT_PLACED = ".placed";
+    private static final String EXT_TMP = ".tmp";
+
+    private static final int MAGIC = 0x41574a31;
+
+    /**
+     * Size of a block record: world, x, y, z, type, data
+     */
+    private static final int RECORD_SIZE = 2 + 4 + 4 + 4 + 2 + 1;
+
+    /**
+     * Maximum time between the checkpoints (ms)
+     */
+    private static final int SYNC_INTERVAL = 1000;
+
+    /**
+     * Number of pending records that triggers a checkpoint
+     */
+    private static final int BATCH_SIZE = 16384;
+
+    /**
+     * Number of records queued by the recovery before waiting for the block
+     * placer
+     */
+    private static final int RECOVERY_WINDOW = 1024;
+
+    private static final byte OP_START = 'S';
+    private static final byte OP_QUEUED = 'Q';
+    private static final byte OP_PLACED = 'P';
+    private static final byte OP_END = 'E';
+
+    /**
+     * Pending journal operation
+     */
+    private static class Record {
+
+        private final byte m_op;
+        private final JobFile m_job;
+        private final String m_world;
+        private final int m_x;
+        private final int m_y;
+        private final int m_z;
+        private final int m_type;
+        private final int m_data;
+
+        private Record(byte op, JobFile job) {
+            this(op, job, null, 0, 0, 0, 0, 0);
+        }
+
+        private Record(byte op, JobFile job, String world, int x, int y, int z, int type, int data) {
+            m_op = op;
+            m_job = job;
+            m_world = world;
+            m_x = x;
+            m_y = y;
+            m_z = z;
+            m_type = type;
+            m_data = data;
+        }
+    }
+
+    /**
+     * The journal files of a single job, used only by the writer thread
+     */
+    private static class JobFile {
+
+        private final File m_folder;
+        private final String m_baseName;
+        private final UUID m_player;
+        private final int m_jobId;
+        private final String m_name;
+        private final List<String> m_worlds = new ArrayList<String>();
+        private final HashMap<String, Integer> m_worldIds = new HashMap<String, Integer>();
+        private FileOutputStream m_queuedFile;
+        private FileOutputStream m_placedFile;
+        private DataOutputStream m_queued;
+        private DataOutputStream m_placed;
+        private long m_queuedCount;
+        private long m_placedCount;
+
+        private JobFile(File folder, String baseName, UUID player, int jobId, String name) {
+            m_folder = folder;
+            m_baseName = baseName;
+            m_player = player;
+            m_jobId = jobId;
+            m_name = name;
+        }
+
+        private File getFile(String ext) {
+            return new File(m_folder, m_baseName + ext);
+        }
+    }
+
+    /**
+     * Unfinished job read from the journal checkpoint
+     */
+    private static class PendingJob {
+
+        private final File m_folder;
+        private final String m_baseName;
+        private final UUID m_player;
+        private final int m_jobId;
+        private final String m_name;
+        private final String[] m_worlds;
+        private final long m_queuedCount;
+        private final long m_placedCount;
+
+        private PendingJob(File folder, String baseName, UUID player, int jobId, String name,
+                String[] worlds, long queuedCount, long placedCount) {
+            m_folder = folder;
+            m_baseName = baseName;
+            m_player = player;
+            m_jobId = jobId;
+            m_name = name;
+            m_worlds = worlds;
+            m_queuedCount = queuedCount;
+            m_placedCount = placedCount;
+        }
+
+        private File getFile(String ext) {
+            return new File(m_folder, m_baseName + ext);
+        }
+
+        private void delete() {
+            getFile(EXT_QUEUED).delete();
+            getFile(EXT_PLACED).delete();
+            getFile(EXT_CHECKPOINT).delete();
+            getFile(EXT_TMP).delete();
+        }
+    }
+
+    /**
+     * The plugin
+     */
+    private final AsyncWorldEditMain m_plugin;
+
+    /**
+     * The MTA mutex
+     */
+    private final Object m_mutex = new Object();
+
+    /**
+     * Jobs that are in the journal and not finished
+     */
+    private final HashMap<String, JobFile> m_activeJobs = new HashMap<String, JobFile>();
+
+    /**
+     * Operations waiting for the writer thread
+     */
+    private List<Record> m_pending = new ArrayList<Record>();
+
+    /**
+     * The journal folder
+     */
+    private File m_folder;
+
+    /**
+     * Unique prefix of the journal files created by this plugin instance
+     */
+    private String m_session;
+
+    /**
+     * The writer thread
+     */
+    private Thread m_thread;
+
+    /**
+     * The recovery job
+     */
+    private volatile JobEntry m_recoveryJob;
+
+    /**
+     * The jobs that are recovered
+     */
+    private List<PendingJob> m_recovered;
+
+    /**
+     * Is the journal enabled
+     */
+    private volatile boolean m_isEnabled;
+
+    public JobJournal(AsyncWorldEditMain plugin) {
+        m_plugin = plugin;
+    }
+
+    /**
+     * Recover the unfinished jobs and start the journal writer
+     *
+     * @param blockPlacer
+     */
+    public void initialize(IBlockPlacer blockPlacer) {
+        if (!ConfigProvider.isJournalEnabled()) {
+            return;
+        }
+
+        m_folder = new File(ConfigProvider.getPluginFolder(), FOLDER_JOURNAL);
+        if (!m_folder.isDirectory() && !m_folder.mkdirs()) {
+            AsyncWorldEditMain.log("Unable to create the job journal folder.");
+            return;
+        }
+        m_session = Long.toString(System.currentTimeMillis(), 36);
+
+        List<PendingJob> jobs = readJournal(m_folder);
+        RecoveryMode mode = ConfigProvider.getJournalRecovery();
+        if (!jobs.isEmpty() && mode != RecoveryMode.Discard) {
+            recover(blockPlacer, jobs, mode);
+        } else {
+            for (PendingJob job : jobs) {
+                job.delete();
+            }
+        }
+
+        synchronized (m_mutex) {
+            m_isEnabled = true;
+            m_thread = new Thread(this, "AWE job journal");
+            m_thread.setDaemon(true);
+            m_thread.start();
+        }
+
+        blockPlacer.addListener(this);
+    }
+
+    /**
+     * Is the journal enabled
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return m_isEnabled;
+    }
+
+    /**
+     * Stop the journal writer, the pending records are written and the
+     * unfinished jobs are kept
+     */
+    public void close() {
+        Thread thread;
+        synchronized (m_mutex) {
+            m_isEnabled = false;
+            thread = m_thread;
+            m_thread = null;
+            m_mutex.notifyAll();
+        }
+
+        if (thread == null) {
+            return;
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void jobAdded(JobEntry job) {
+        if (!m_isEnabled || job == m_recoveryJob) {
+            return;
+        }
+
+        UUID uuid = job.getPlayer().getUUID();
+        int jobId = job.getJobId();
+        String key = getKey(uuid, jobId);
+
+        synchronized (m_mutex) {
+            if (!m_isEnabled || m_activeJobs.containsKey(key)) {
+                return;
+            }
+
+            JobFile jobFile = new JobFile(m_folder, m_session + "_" + key, uuid, jobId, job.getName());
+            m_activeJobs.put(key, jobFile);
+            m_pending.add(new Record(OP_START, jobFile));
+        }
+    }
+
+    @Override
+    public void jobRemoved(JobEntry job) {
+        if (job == m_recoveryJob && job != null) {
+            m_recoveryJob = null;
+            List<PendingJob> recovered = m_recovered;
+            m_recovered = null;
+            if (recovered != null) {
+                for (PendingJob pJob : recovered) {
+                    pJob.delete();
+                }
+            }
+            return;
+        }
+
+        if (!m_isEnabled) {
+            return;
+        }
+
+        String key = getKey(job.getPlayer().getUUID(), job.getJobId());
+        synchronized (m_mutex) {
+            JobFile jobFile = m_activeJobs.remove(key);
+            if (jobFile != null) {
+                m_pending.add(new Record(OP_END, jobFile));
+                m_mutex.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Block was added to the block placer queue
+     *
+     * @param player
+     * @param jobId
+     * @param world
+     * @param pos
+     * @param block
+     */
+    public void blockQueued(PlayerEntry player, int jobId, String world, Vector pos, BaseBlock block) {
+        addBlock(OP_QUEUED, player, jobId, world, pos, block);
+    }
+
+    /**
+     * Block was placed
+     *
+     * @param player
+     * @param jobId
+     * @param world
+     * @param pos
+     * @param oldBlock
+     */
+    public void blockPlaced(PlayerEntry player, int jobId, String world, Vector pos, BaseBlock oldBlock) {
+        addBlock(OP_PLACED, player, jobId, world, pos, oldBlock);
+    }
+
+    /**
+     * Add the block record to the pending operations, the record is written
+     * by the journal thread
+     */
+    private void addBlock(byte op, PlayerEntry player, int jobId, String world, Vector pos, BaseBlock block) {
+        if (!m_isEnabled || player == null || world == null || block == null) {
+            return;
+        }
+
+        String key = getKey(player.getUUID(), jobId);
+        synchronized (m_mutex) {
+            JobFile jobFile = m_activeJobs.get(key);
+            if (jobFile == null) {
+                return;
+            }
+
+            m_pending.add(new Record(op, jobFile, world,
+                    pos.getBlockX(), pos.getBlockY(), pos.getBlockZ(),
+                    block.getType(), block.getData()));
+            if (m_pending.size() >= BATCH_SIZE) {
+                m_mutex.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        HashMap<JobFile, Boolean> openJobs = new HashMap<JobFile, Boolean>();
+        boolean isRunning = true;
+
+        while (isRunning) {
+            List<Record> records;
+            synchronized (m_mutex) {
+                if (m_isEnabled && m_pending.size() < BATCH_SIZE) {
+                    try {
+                        m_mutex.wait(SYNC_INTERVAL);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                isRunning = m_isEnabled;
+                records = m_pending;
+                m_pending = new ArrayList<Record>();
+            }
+
+            LinkedHashSet<JobFile> dirty = new LinkedHashSet<JobFile>();
+            for (Record record : records) {
+                JobFile job = record.m_job;
+                try {
+                    switch (record.m_op) {
+                        case OP_START:
+                            open(job);
+                            openJobs.put(job, Boolean.TRUE);
+                            dirty.add(job);
+                            break;
+                        case OP_END:
+                            if (openJobs.remove(job) != null) {
+                                closeStreams(job);
+                            }
+                            dirty.remove(job);
+                            deleteFiles(job);
+                            break;
+                        default:
+                            if (openJobs.containsKey(job)) {
+                                writeRecord(job, record);
+                                dirty.add(job);
+                            }
+                            break;
+                    }
+                } catch (IOException ex) {
+                    ExceptionHelper.printException(ex, "Unable to write the job journal " + job.m_baseName);
+                    openJobs.remove(job);
+                    dirty.remove(job);
+                    closeStreams(job);
+                }
+            }
+
+            for (JobFile job : dirty) {
+                try {
+                    checkpoint(job);
+                } catch (IOException ex) {
+                    ExceptionHelper.printException(ex, "Unable to write the job journal checkpoint " + job.m_baseName);
+                }
+            }
+        }
+
+        for (JobFile job : openJobs.keySet()) {
+            closeStreams(job);
+        }
+    }
+
+    /**
+     * Open the job record files
+     *
+     * @param job
+     * @throws IOException
+     */
+    private static void open(JobFile job) throws IOException {
+        job.m_queuedFile = new FileOutputStream(job.getFile(EXT_QUEUED), false);
+        job.m_placedFile = new FileOutputStream(job.getFile(EXT_PLACED), false);
+        job.m_queued = new DataOutputStream(new BufferedOutputStream(job.m_queuedFile));
+        job.m_placed = new DataOutputStream(new BufferedOutputStream(job.m_placedFile));
+    }
+
+    /**
+     * Write the block record
+     *
+     * @param job
+     * @param record
+     * @throws IOException
+     */
+    private static void writeRecord(JobFile job, Record record) throws IOException {
+        Integer worldId = job.m_worldIds.get(record.m_world);
+        if (worldId == null) {
+            worldId = job.m_worlds.size();
+            job.m_worlds.add(record.m_world);
+            job.m_worldIds.put(record.m_world, worldId);
+        }
+
+        DataOutputStream stream;
+        if (record.m_op == OP_QUEUED) {
+            stream = job.m_queued;
+            job.m_queuedCount++;
+        } else {
+            stream = job.m_placed;
+            job.m_placedCount++;
+        }
+
+        stream.writeShort(worldId);
+        stream.writeInt(record.m_x);
+        stream.writeInt(record.m_y);
+        stream.writeInt(record.m_z);
+        stream.writeShort(record.m_type);
+        stream.writeByte(record.m_data);
+    }
+
+    /**
+     * Sync the record files and store the number of synced records. Recovery
+     * uses only the records covered by the checkpoint.
+     *
+     * @param job
+     * @throws IOException
+     */
+    private static void checkpoint(JobFile job) throws IOException {
+        job.m_queued.flush();
+        job.m_placed.flush();
+        job.m_queuedFile.getFD().sync();
+        job.m_placedFile.getFD().sync();
+
+        File tmp = job.getFile(EXT_TMP);
+        FileOutputStream file = new FileOutputStream(tmp, false);
+        try {
+            DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(file));
+            stream.writeInt(MAGIC);
+            stream.writeLong(job.m_player.getMostSignificantBits());
+            stream.writeLong(job.m_player.getLeastSignificantBits());
+            stream.writeInt(job.m_jobId);
+            stream.writeUTF(job.m_name);
+            stream.writeLong(job.m_queuedCount);
+            stream.writeLong(job.m_placedCount);
+            stream.writeInt(job.m_worlds.size());
+            for (String world : job.m_worlds) {
+                stream.writeUTF(world);
+            }
+            stream.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+
+        File checkpoint = job.getFile(EXT_CHECKPOINT);
+        if (!tmp.renameTo(checkpoint)) {
+            checkpoint.delete();
+            if (!tmp.renameTo(checkpoint)) {
+                throw new IOException("Unable to replace " + checkpoint.getName());
+            }
+        }
+    }
+
+    private static void closeStreams(JobFile job) {
+        for (DataOutputStream stream : new DataOutputStream[]{job.m_queued, job.m_placed}) {
+            if (stream == null) {
+                continue;
+            }
+            try {
+                stream.close();
+            } catch (IOException ex) {
+                ExceptionHelper.printException(ex, "Unable to close the job journal " + job.m_baseName);
+            }
+        }
+        job.m_queued = null;
+        job.m_placed = null;
+        job.m_queuedFile = null;
+        job.m_placedFile = null;
+    }
+
+    private static void deleteFiles(JobFile job) {
+        job.getFile(EXT_QUEUED).delete();
+        job.getFile(EXT_PLACED).delete();
+        job.getFile(EXT_CHECKPOINT).delete();
+        job.getFile(EXT_TMP).delete();
+    }
+
+    private static String getKey(UUID uuid, int jobId) {
+        return uuid.toString() + "_" + jobId;
+    }
+
+    /**
+     * Read the checkpoints of the unfinished jobs, the block records are not
+     * loaded
+     *
+     * @param folder
+     * @return
+     */
+    private static List<PendingJob> readJournal(File folder) {
+        List<PendingJob> result = new ArrayList<PendingJob>();
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return result;
+        }
+
+        for (File file : files) {
+            String fileName = file.getName();
+            if (!fileName.endsWith(EXT_CHECKPOINT)) {
+                continue;
+            }
+
+            String baseName = fileName.substring(0, fileName.length() - EXT_CHECKPOINT.length());
+            DataInputStream stream = null;
+            try {
+                stream = new DataInputStream(new FileInputStream(file));
+                if (stream.readInt() != MAGIC) {
+                    AsyncWorldEditMain.log("Warning: job journal " + fileName + " is corrupted, ignoring.");
+                    continue;
+                }
+
+                UUID uuid = new UUID(stream.readLong(), stream.readLong());
+                int jobId = stream.readInt();
+                String name = stream.readUTF();
+                long queued = stream.readLong();
+                long placed = stream.readLong();
+                String[] worlds = new String[stream.readInt()];
+                for (int i = 0; i < worlds.length; i++) {
+                    worlds[i] = stream.readUTF();
+                }
+
+                PendingJob job = new PendingJob(folder, baseName, uuid, jobId, name, worlds, queued, placed);
+                if (job.getFile(EXT_QUEUED).length() < queued * RECORD_SIZE
+                        || job.getFile(EXT_PLACED).length() < placed * RECORD_SIZE) {
+                    AsyncWorldEditMain.log("Warning: job journal " + fileName + " is truncated, ignoring.");
+                    continue;
+                }
+                result.add(job);
+            } catch (IOException ex) {
+                ExceptionHelper.printException(ex, "Unable to read the job journal " + fileName);
+            } finally {
+                if (stream != null) {
+                    try {
+                        stream.close();
+                    } catch (IOException ex) {
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Queue the recovery of the unfinished jobs as a console job. The records
+     * are streamed from the journal files in windows, waiting for the block
+     * placer queue between the windows.
+     *
+     * @param blockPlacer
+     * @param jobs
+     * @param mode
+     */
+    private void recover(final IBlockPlacer blockPlacer, final List<PendingJob> jobs, final RecoveryMode mode) {
+        final PlayerEntry player = PlayerEntry.CONSOLE;
+        final int jobId = blockPlacer.getJobId(player);
+        final JobEntry job = new JobEntry(player, jobId, "journal " + mode.toString().toLowerCase());
+
+        m_recovered = jobs;
+        m_recoveryJob = job;
+        blockPlacer.addJob(player, job);
+        job.setStatus(JobEntry.JobStatus.Preparing);
+        blockPlacer.addTasks(player, job);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long blocks = 0;
+                for (PendingJob pJob : jobs) {
+                    AsyncWorldEditMain.log("Job journal: " + mode + " job " + pJob.m_name
+                            + " (" + pJob.m_jobId + ") of " + pJob.m_player);
+                    try {
+                        blocks += recover(blockPlacer, job, pJob, mode);
+                    } catch (IOException ex) {
+                        ExceptionHelper.printException(ex, "Unable to read the job journal " + pJob.m_baseName);
+                    }
+                }
+
+                AsyncWorldEditMain.log("Job journal: " + blocks + " blocks queued for " + mode);
+
+                job.setStatus(JobEntry.JobStatus.Waiting);
+                blockPlacer.addTasks(player, job);
+                job.taskDone();
+            }
+        }, "AWE job journal recovery");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stream the records of a single job to the block placer. Resume places the
+     * queued blocks after the last placed block, rollback restores the old
+     * blocks from the last to the first.
+     *
+     * @param blockPlacer
+     * @param job
+     * @param pJob
+     * @param mode
+     * @return Number of queued blocks
+     * @throws IOException
+     */
+    private long recover(IBlockPlacer blockPlacer, JobEntry job, PendingJob pJob,
+            RecoveryMode mode) throws IOException {
+        final boolean isResume = mode == RecoveryMode.Resume;
+        final long from = isResume ? Math.min(pJob.m_placedCount, pJob.m_queuedCount) : 0;
+        final long to = isResume ? pJob.m_queuedCount : pJob.m_placedCount;
+        final byte[] buffer = new byte[RECOVERY_WINDOW * RECORD_SIZE];
+        final Server server = m_plugin.getServer();
+        final ChunkSnapshotCache chunkCache = m_plugin.getChunkCache();
+        final PlayerEntry player = job.getPlayer();
+
+        RandomAccessFile file = new RandomAccessFile(pJob.getFile(isResume ? EXT_QUEUED : EXT_PLACED), "r");
+        try {
+            long done = 0;
+            while (done < to - from) {
+                if (!blockPlacer.waitForQueue(job)) {
+                    break;
+                }
+
+                int count = (int) Math.min(RECOVERY_WINDOW, to - from - done);
+                long start = isResume ? from + done : to - done - count;
+                file.seek(start * RECORD_SIZE);
+                file.readFully(buffer, 0, count * RECORD_SIZE);
+
+                for (int i = 0; i < count; i++) {
+                    int idx = isResume ? i : count - 1 - i;
+                    blockPlacer.addTasks(player, new ActionEntry(job.getJobId(),
+                            createAction(server, chunkCache, pJob, buffer, idx * RECORD_SIZE), false));
+                }
+                done += count;
+            }
+
+            return done;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Create the block place action from the record
+     *
+     * @param server
+     * @param chunkCache
+     * @param pJob
+     * @param buffer
+     * @param offset
+     * @return
+     */
+    private static Action createAction(final Server server, final ChunkSnapshotCache chunkCache, PendingJob pJob, byte[] buffer, int offset) {
+        int worldId = readShort(buffer, offset);
+        final String worldName = worldId < pJob.m_worlds.length ? pJob.m_worlds[worldId] : null;
+        final int x = readInt(buffer, offset + 2);
+        final int y = readInt(buffer, offset + 6);
+        final int z = readInt(buffer, offset + 10);
+        final int type = readShort(buffer, offset + 14);
+        final byte data = buffer[offset + 16];
+
+        return new Action() {
+            @Override
+            public void execute() {
+                World world = worldName != null ? server.getWorld(worldName) : null;
+                if (world != null) {
+                    world.getBlockAt(x, y, z).setTypeIdAndData(type, data, false);
+                    chunkCache.invalidate(worldName, x >> 4, z >> 4);
+                }
+            }
+        };
+    }
+
+    private static int readShort(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 8) | (buffer[offset + 1] & 0xff);
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16)
+                | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+    }
+}
@@ -108,6 +108,11 @@ public class JobEntry extends BlockPlacerEntry {
      */
     private boolean m_taskDone;
 
+    /**
+     * Number of finished operation steps
+     */
+    private volatile int m_step;
+
     /**
      * All job state changed events
      */
@@ -244,6 +249,24 @@ public class JobEntry extends BlockPlacerEntry {
         callStateChangedEvents();
     }
 
+    /**
+     * Get the number of finished operation steps
+     *
+     * @return
+     */
+    public int getStep() {
+        return m_step;
+    }
+
+    /**
+     * Set the number of finished operation steps
+     *
+     * @param step
+     */
+    public void setStep(int step) {
+        m_step = step;
+    }
+
     /**
      * Cancel the job
      */
@@ -273,7 +296,9 @@ public class JobEntry extends BlockPlacerEntry {
             case PlacingBlocks:
                 return MessageType.CMD_JOBS_STATUS_PLACING_BLOCKS.format();
             case Preparing:
-                return MessageType.CMD_JOBS_STATUS_PREPARING.format();
+                int step = m_step;
+                return step > 0 ? MessageType.CMD_JOBS_STATUS_PREPARING_STEP.format(step)
+                        : MessageType.CMD_JOBS_STATUS_PREPARING.format();
             case Waiting:
                 return MessageType.CMD_JOBS_STATUS_WAITING.format();
         }
@@ -42,6 +42,7 @@ package org.primesoft.asyncworldedit.blockPlacer.entries;
 
 import com.sk89q.worldedit.Vector2D;
 import org.bukkit.World;
+import org.primesoft.asyncworldedit.ChunkSnapshotCache;
 import org.primesoft.asyncworldedit.api.blockPlacer.IBlockPlacer;
 import org.primesoft.asyncworldedit.blockPlacer.BlockPlacerEntry;
 import org.primesoft.asyncworldedit.utils.ExceptionHelper;
@@ -54,18 +55,21 @@ public class RegenerateEntry extends BlockPlacerEntry {
 
     private final World m_world;
     private final Vector2D m_chunk;
+    private final ChunkSnapshotCache m_chunkCache;
 
-    public RegenerateEntry(int jobId, World world, Vector2D chunk) {
+    public RegenerateEntry(int jobId, World world, Vector2D chunk, ChunkSnapshotCache chunkCache) {
         super(jobId, true);
 
         m_chunk = chunk;
         m_world = world;
+        m_chunkCache = chunkCache;
     }
 
     @Override
     public boolean process(IBlockPlacer bp) {
         try {
             m_world.regenerateChunk(m_chunk.getBlockX(), m_chunk.getBlockZ());
+            m_chunkCache.invalidate(m_world.getName(), m_chunk.getBlockX(), m_chunk.getBlockZ());
             return true;
             
         } catch (Throwable t) {
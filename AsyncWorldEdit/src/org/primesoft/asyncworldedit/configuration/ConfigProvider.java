@@ -48,6 +48,8 @@ import java.util.List;
 import org.bukkit.configuration.Configuration;
 import org.bukkit.configuration.ConfigurationSection;
 import org.primesoft.asyncworldedit.AsyncWorldEditMain;
+import org.primesoft.asyncworldedit.BlocksHubLogger;
+import org.primesoft.asyncworldedit.blockPlacer.JobJournal;
 import org.primesoft.asyncworldedit.worldedit.WorldeditOperations;
 
 /**
@@ -85,6 +87,12 @@ public class ConfigProvider {
 
     private static boolean m_checkAccess;
 
+    private static boolean m_cacheAccess;
+
+    private static int m_logQueueSize;
+
+    private static BlocksHubLogger.OverflowMode m_logOverflow;
+
     private static boolean m_logBlocks;
 
     private static boolean m_debugMode;
@@ -120,6 +128,66 @@ public class ConfigProvider {
      */
     private static int m_dispatcherMaxTime;
 
+    /**
+     * Is the job journal enabled
+     */
+    private static boolean m_journalEnabled;
+
+    /**
+     * What to do with unfinished jobs
+     */
+    private static JobJournal.RecoveryMode m_journalRecovery;
+
+    /**
+     * Is the on disk undo history enabled
+     */
+    private static boolean m_undoHistoryEnabled;
+
+    /**
+     * Maximum number of stored undo entries per player
+     */
+    private static int m_undoHistoryMaxEntries;
+
+    /**
+     * Maximum age of the stored undo entries (days)
+     */
+    private static int m_undoHistoryMaxAge;
+
+    /**
+     * Maximum size of the schematic cache (MB)
+     */
+    private static int m_schematicCacheSize;
+
+    /**
+     * Maximum depth of the operation scan
+     */
+    private static int m_scannerMaxDepth;
+
+    /**
+     * Maximum number of objects scanned per operation
+     */
+    private static int m_scannerMaxObjects;
+
+    /**
+     * Maximum number of scanned elements per array or collection
+     */
+    private static int m_scannerMaxElements;
+
+    /**
+     * Is the chunk snapshot cache enabled
+     */
+    private static boolean m_chunkCacheEnabled;
+
+    /**
+     * Maximum size of the chunk snapshot cache in MB
+     */
+    private static int m_chunkCacheSize;
+
+    /**
+     * Maximum age of the cached chunk snapshots in ms
+     */
+    private static int m_chunkCacheMaxAge;
+
     public static int getForceFlushBlocks() {
         return m_forceFlushBlockCount;
     }
@@ -202,6 +270,35 @@ public class ConfigProvider {
         return m_checkAccess;
     }
 
+    /**
+     * Are the denied sections cached for the running jobs (the block perms
+     * check is skipped in sections that are denied as a whole)
+     *
+     * @return
+     */
+    public static boolean getCacheAccess() {
+        return m_cacheAccess;
+    }
+
+    /**
+     * Size of the block logger buffer, 0 to log blocks directly. The buffer
+     * requires a thread safe block logger.
+     *
+     * @return
+     */
+    public static int getLogQueueSize() {
+        return m_logQueueSize;
+    }
+
+    /**
+     * What to do when the block logger buffer is full
+     *
+     * @return
+     */
+    public static BlocksHubLogger.OverflowMode getLogOverflow() {
+        return m_logOverflow;
+    }
+
     public static int getQueueTalkInterval() {
         return m_queueTalkInterval;
     }
@@ -232,6 +329,115 @@ public class ConfigProvider {
         return m_stringsFile;
     }
 
+    /**
+     * Is the job journal enabled
+     *
+     * @return
+     */
+    public static boolean isJournalEnabled() {
+        return m_journalEnabled;
+    }
+
+    /**
+     * What to do with unfinished jobs found in the journal
+     *
+     * @return
+     */
+    public static JobJournal.RecoveryMode getJournalRecovery() {
+        return m_journalRecovery;
+    }
+
+    /**
+     * Is the on disk undo history enabled
+     *
+     * @return
+     */
+    public static boolean isUndoHistoryEnabled() {
+        return m_undoHistoryEnabled;
+    }
+
+    /**
+     * Maximum number of stored undo entries per player (-1 no limit)
+     *
+     * @return
+     */
+    public static int getUndoHistoryMaxEntries() {
+        return m_undoHistoryMaxEntries;
+    }
+
+    /**
+     * Maximum age of the stored undo entries in days (-1 no limit)
+     *
+     * @return
+     */
+    public static int getUndoHistoryMaxAge() {
+        return m_undoHistoryMaxAge;
+    }
+
+    /**
+     * Maximum size of the schematic cache in MB (0 disabled)
+     *
+     * @return
+     */
+    public static int getSchematicCacheSize() {
+        return m_schematicCacheSize;
+    }
+
+    /**
+     * Maximum depth of the operation scan (-1 no limit)
+     *
+     * @return
+     */
+    public static int getScannerMaxDepth() {
+        return m_scannerMaxDepth;
+    }
+
+    /**
+     * Maximum number of objects scanned per operation (-1 no limit)
+     *
+     * @return
+     */
+    public static int getScannerMaxObjects() {
+        return m_scannerMaxObjects;
+    }
+
+    /**
+     * Maximum number of scanned elements per array or collection (-1 no
+     * limit)
+     *
+     * @return
+     */
+    public static int getScannerMaxElements() {
+        return m_scannerMaxElements;
+    }
+
+    /**
+     * Is the chunk snapshot cache enabled
+     *
+     * @return
+     */
+    public static boolean isChunkCacheEnabled() {
+        return m_chunkCacheEnabled;
+    }
+
+    /**
+     * Maximum size of the chunk snapshot cache in MB
+     *
+     * @return
+     */
+    public static int getChunkCacheSize() {
+        return m_chunkCacheSize;
+    }
+
+    /**
+     * Maximum age of the cached chunk snapshots in ms (-1 no limit)
+     *
+     * @return
+     */
+    public static int getChunkCacheMaxAge() {
+        return m_chunkCacheMaxAge;
+    }
+
 
     /**
      * Load configuration
@@ -260,11 +466,16 @@ public class ConfigProvider {
         m_stringsFile = mainSection.getString("strings", "");
         m_debugMode = mainSection.getBoolean("debug", false);
         m_forceFlushBlockCount = mainSection.getInt("forceFlushBlocks", 1000);
+        m_schematicCacheSize = Math.max(0, mainSection.getInt("schematicCacheSize", 64));
 
         parseGroupsSection(mainSection.getConfigurationSection("permissionGroups"));
         parseRenderSection(mainSection);
         parseBlocksHubSection(mainSection.getConfigurationSection("blocksHub"));
         parseDispatcherSection(mainSection.getConfigurationSection("dispatcher"));
+        parseJournalSection(mainSection.getConfigurationSection("journal"));
+        parseUndoHistorySection(mainSection.getConfigurationSection("undoHistory"));
+        parseScannerSection(mainSection.getConfigurationSection("classScanner"));
+        parseChunkCacheSection(mainSection.getConfigurationSection("chunkCache"));
 
         m_allowedOperations = parseOperationsSection(mainSection);
 
@@ -371,12 +582,103 @@ public class ConfigProvider {
      * @param bhSection
      */
     private static void parseBlocksHubSection(ConfigurationSection bhSection) {
+        String overflow;
         if (bhSection == null) {
             m_logBlocks = true;
             m_checkAccess = false;
+            m_cacheAccess = false;
+            m_logQueueSize = 0;
+            overflow = "";
         } else {
             m_logBlocks = bhSection.getBoolean("logBlocks", true);
             m_checkAccess = bhSection.getBoolean("checkAccess", false);
+            m_cacheAccess = bhSection.getBoolean("cacheAccess", false);
+            m_logQueueSize = Math.max(0, bhSection.getInt("logQueueSize", 0));
+            overflow = bhSection.getString("logOverflow", "");
+        }
+
+        m_logOverflow = BlocksHubLogger.OverflowMode.Direct;
+        for (BlocksHubLogger.OverflowMode mode : BlocksHubLogger.OverflowMode.values()) {
+            if (mode.toString().equalsIgnoreCase(overflow)) {
+                m_logOverflow = mode;
+            }
+        }
+    }
+
+    /**
+     * Initialize the job journal configuration
+     *
+     * @param jSection
+     */
+    private static void parseJournalSection(ConfigurationSection jSection) {
+        String recovery;
+        if (jSection == null) {
+            m_journalEnabled = false;
+            recovery = "rollback";
+        } else {
+            m_journalEnabled = jSection.getBoolean("enabled", false);
+            recovery = jSection.getString("recovery", "rollback");
+        }
+
+        m_journalRecovery = JobJournal.RecoveryMode.Rollback;
+        for (JobJournal.RecoveryMode mode : JobJournal.RecoveryMode.values()) {
+            if (mode.toString().equalsIgnoreCase(recovery)) {
+                m_journalRecovery = mode;
+            }
+        }
+        if (!m_journalRecovery.toString().equalsIgnoreCase(recovery)) {
+            AsyncWorldEditMain.log("Warning: unknown journal recovery mode " + recovery + ", using rollback.");
+        }
+    }
+
+    /**
+     * Initialize the stored undo history configuration
+     *
+     * @param uSection
+     */
+    private static void parseUndoHistorySection(ConfigurationSection uSection) {
+        if (uSection == null) {
+            m_undoHistoryEnabled = false;
+            m_undoHistoryMaxEntries = 10;
+            m_undoHistoryMaxAge = 7;
+        } else {
+            m_undoHistoryEnabled = uSection.getBoolean("enabled", false);
+            m_undoHistoryMaxEntries = uSection.getInt("max-entries", 10);
+            m_undoHistoryMaxAge = uSection.getInt("max-age", 7);
+        }
+    }
+
+    /**
+     * Initialize the operation scanner limits
+     *
+     * @param sSection
+     */
+    private static void parseScannerSection(ConfigurationSection sSection) {
+        if (sSection == null) {
+            m_scannerMaxDepth = 32;
+            m_scannerMaxObjects = 10000;
+            m_scannerMaxElements = 256;
+        } else {
+            m_scannerMaxDepth = sSection.getInt("max-depth", 32);
+            m_scannerMaxObjects = sSection.getInt("max-objects", 10000);
+            m_scannerMaxElements = sSection.getInt("max-elements", 256);
+        }
+    }
+
+    /**
+     * Initialize the chunk snapshot cache
+     *
+     * @param cSection
+     */
+    private static void parseChunkCacheSection(ConfigurationSection cSection) {
+        if (cSection == null) {
+            m_chunkCacheEnabled = false;
+            m_chunkCacheSize = 64;
+            m_chunkCacheMaxAge = 1000;
+        } else {
+            m_chunkCacheEnabled = cSection.getBoolean("enabled", false);
+            m_chunkCacheSize = cSection.getInt("size", 64);
+            m_chunkCacheMaxAge = cSection.getInt("max-age", 1000);
         }
     }
 
@@ -43,6 +43,7 @@ package org.primesoft.asyncworldedit.injector.async;
 import org.primesoft.asyncworldedit.AsyncWorldEditMain;
 import org.primesoft.asyncworldedit.injector.classfactory.IJobProcessor;
 import org.primesoft.asyncworldedit.injector.classfactory.IOperationProcessor;
+import org.primesoft.asyncworldedit.injector.classfactory.IWorkerPool;
 import org.primesoft.asyncworldedit.injector.classfactory.base.BaseClassFactory;
 
 /**
@@ -58,10 +59,13 @@ public class AsyncClassFactory extends BaseClassFactory {
     
     private final AsyncJobProcessor m_jobProcessor;
 
+    private final AsyncWorkerPool m_workerPool;
+
     public AsyncClassFactory(AsyncWorldEditMain plugin)
     {        
         m_operationProcessor = new AsyncOperationProcessor(plugin);
         m_jobProcessor = new AsyncJobProcessor(plugin);
+        m_workerPool = new AsyncWorkerPool();
     }
     
     @Override
@@ -72,5 +76,10 @@ public class AsyncClassFactory extends BaseClassFactory {
     @Override
     public IJobProcessor getJobProcessor() {
         return m_jobProcessor;
+    }
+
+    @Override
+    public IWorkerPool getWorkerPool() {
+        return m_workerPool;
     }       
 }
@@ -81,6 +81,11 @@ class AsyncJobProcessor implements IJobProcessor {
      */
     private final IPlayerManager m_playerManager;
 
+    /**
+     * The job executed by the current thread
+     */
+    private final ThreadLocal<JobEntry> m_currentJob = new ThreadLocal<JobEntry>();
+
     AsyncJobProcessor(AsyncWorldEditMain plugin) {
         m_plugin = plugin;
         m_schedule = m_plugin.getServer().getScheduler();
@@ -135,6 +140,7 @@ class AsyncJobProcessor implements IJobProcessor {
                 name, m_blockPlacer, jobEntry) {
                     @Override
                     protected Object doRun() throws MaxChangedBlocksException {
+                        m_currentJob.set(jobEntry);
                         try {
                             job.execute();
 
@@ -147,6 +153,8 @@ class AsyncJobProcessor implements IJobProcessor {
                             //Silently discard other errors :(
                             ExceptionHelper.printException(ex, "Error while processing async job " + name);
                             return 0;
+                        } finally {
+                            m_currentJob.remove();
                         }
                     }
 
@@ -156,4 +164,13 @@ class AsyncJobProcessor implements IJobProcessor {
                 });
     }
 
+    @Override
+    public boolean waitForQueue(Player player) {
+        final JobEntry job = m_currentJob.get();
+        if (job == null) {
+            return true;
+        }
+
+        return m_blockPlacer.waitForQueue(job);
+    }
 }
@@ -41,9 +41,11 @@
 package org.primesoft.asyncworldedit.injector.async;
 
 import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.WorldEditException;
 import org.primesoft.asyncworldedit.injector.validators.OperationValidator;
 import org.primesoft.asyncworldedit.injector.validators.StackValidator;
 import com.sk89q.worldedit.function.operation.Operation;
+import com.sk89q.worldedit.function.operation.RunContext;
 import com.sk89q.worldedit.regions.Region;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
@@ -59,6 +61,7 @@ import org.primesoft.asyncworldedit.injector.classfactory.IOperationProcessor;
 import org.primesoft.asyncworldedit.injector.scanner.ClassScanner;
 import org.primesoft.asyncworldedit.injector.scanner.ClassScannerResult;
 import org.primesoft.asyncworldedit.injector.utils.ExceptionOperationAction;
+import org.primesoft.asyncworldedit.injector.utils.OperationBinding;
 import org.primesoft.asyncworldedit.injector.utils.OperationAction;
 import org.primesoft.asyncworldedit.utils.ExceptionHelper;
 import org.primesoft.asyncworldedit.utils.InOutParam;
@@ -68,6 +71,8 @@ import org.primesoft.asyncworldedit.utils.WaitFor;
 import org.primesoft.asyncworldedit.worldedit.AsyncEditSession;
 import org.primesoft.asyncworldedit.worldedit.AsyncTask;
 import org.primesoft.asyncworldedit.worldedit.CancelabeEditSession;
+import org.primesoft.asyncworldedit.worldedit.ChunkSnapshotCopy;
+import org.primesoft.asyncworldedit.worldedit.CuboidFill;
 
 /**
  *
@@ -90,32 +95,56 @@ public class AsyncOperationProcessor implements IOperationProcessor {
      */
     protected final IBlockPlacer m_blockPlacer;
 
+    /**
+     * The region to clipboard copy engine
+     */
+    private final ChunkSnapshotCopy m_regionCopy;
+
+    /**
+     * The cuboid fill engine
+     */
+    private final CuboidFill m_cuboidFill;
+
     public AsyncOperationProcessor(AsyncWorldEditMain plugin) {
         m_plugin = plugin;
         m_schedule = m_plugin.getServer().getScheduler();
         m_blockPlacer = m_plugin.getBlockPlacer();
+        m_regionCopy = new ChunkSnapshotCopy(plugin);
+        m_cuboidFill = new CuboidFill(plugin);
     }
 
     @Override
     public <TException extends Exception> void process(final Operation op,
             final ExceptionOperationAction<TException> action) throws TException {
         InOutParam<String> operationName = InOutParam.Out();
+        final OperationBinding binding = OperationBinding.remove(op);
 
-        if (!StackValidator.isVaild(operationName) || !OperationValidator.isValid(op)) {
+        if (!OperationValidator.isValid(op) || !StackValidator.isVaild(operationName)) {
             action.Execute(op);
             return;
         }
 
-        /**
-         * What to do if scanner finds multiple different edit sessions?
-         */
-        List<ClassScannerResult> sessions = ClassScanner.scan(new Class<?>[]{AsyncEditSession.class, Region.class}, op);
-        if (!validate(sessions)) {
-            action.Execute(op);
-            return;
-        }
+        final AsyncEditSession asyncSession;
+        List<ClassScannerResult> sessions = null;
+        if (binding != null && binding.getSession() instanceof AsyncEditSession) {
+            asyncSession = (AsyncEditSession) binding.getSession();
+        } else {
+            /**
+             * What to do if scanner finds multiple different edit sessions?
+             */
+            //A truncated scan may miss edit sessions or regions, run it synchronously
+            InOutParam<Boolean> truncated = InOutParam.Out();
+            sessions = ClassScanner.scan(new Class<?>[]{AsyncEditSession.class, Region.class}, op, truncated);
+            if (truncated.getValue()) {
+                logTruncated(op);
+            }
+            if (truncated.getValue() || !validate(sessions)) {
+                action.Execute(op);
+                return;
+            }
 
-        final AsyncEditSession asyncSession = getFirst(AsyncEditSession.class, sessions);
+            asyncSession = getFirst(AsyncEditSession.class, sessions);
+        }
         final String name = operationName.getValue();
         if (!asyncSession.checkAsync(name)) {
             action.Execute(op);
@@ -128,7 +157,13 @@ public class AsyncOperationProcessor implements IOperationProcessor {
         final CancelabeEditSession cancelableSession = new CancelabeEditSession(asyncSession, asyncSession.getMask(), jobId);
         final JobEntry job = new JobEntry(playerEntry, cancelableSession, jobId, name);
 
-        injectEditSession(sessions, cancelableSession);
+        final Operation asyncOp;
+        if (sessions == null) {
+            asyncOp = binding.create(cancelableSession);
+        } else {
+            injectEditSession(sessions, cancelableSession);
+            asyncOp = op;
+        }
 
         m_blockPlacer.addJob(playerEntry, job);
         m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(cancelableSession, playerEntry,
@@ -138,7 +173,10 @@ public class AsyncOperationProcessor implements IOperationProcessor {
                     throws MaxChangedBlocksException {
                         try {
                             wait.checkAndWait(null);
-                            action.Execute(op);
+                            if (!m_regionCopy.copy(asyncOp, cancelableSession)
+                                    && !m_cuboidFill.fill(asyncOp, cancelableSession)) {
+                                runSliced(asyncOp, cancelableSession, job, wait);
+                            }
 
                             return cancelableSession.getChangeSet().size();
                         } catch (Exception ex) {
@@ -157,22 +195,34 @@ public class AsyncOperationProcessor implements IOperationProcessor {
     @Override
     public void process(final Operation op, final OperationAction action) {
         InOutParam<String> operationName = InOutParam.Out();
+        final OperationBinding binding = OperationBinding.remove(op);
 
-        if (!StackValidator.isVaild(operationName) || !OperationValidator.isValid(op)) {
+        if (!OperationValidator.isValid(op) || !StackValidator.isVaild(operationName)) {
             action.Execute(op);
             return;
         }
 
-        /**
-         * What to do if scanner finds multiple different edit sessions?
-         */
-        List<ClassScannerResult> sessions = ClassScanner.scan(new Class<?>[]{AsyncEditSession.class, Region.class}, op);
-        if (!validate(sessions)) {
-            action.Execute(op);
-            return;
-        }
+        final AsyncEditSession asyncSession;
+        List<ClassScannerResult> sessions = null;
+        if (binding != null && binding.getSession() instanceof AsyncEditSession) {
+            asyncSession = (AsyncEditSession) binding.getSession();
+        } else {
+            /**
+             * What to do if scanner finds multiple different edit sessions?
+             */
+            //A truncated scan may miss edit sessions or regions, run it synchronously
+            InOutParam<Boolean> truncated = InOutParam.Out();
+            sessions = ClassScanner.scan(new Class<?>[]{AsyncEditSession.class, Region.class}, op, truncated);
+            if (truncated.getValue()) {
+                logTruncated(op);
+            }
+            if (truncated.getValue() || !validate(sessions)) {
+                action.Execute(op);
+                return;
+            }
 
-        final AsyncEditSession asyncSession = getFirst(AsyncEditSession.class, sessions);
+            asyncSession = getFirst(AsyncEditSession.class, sessions);
+        }
         final String name = operationName.getValue();
 
         if (!asyncSession.checkAsync(name)) {
@@ -186,7 +236,13 @@ public class AsyncOperationProcessor implements IOperationProcessor {
         final CancelabeEditSession cancelableSession = new CancelabeEditSession(asyncSession, asyncSession.getMask(), jobId);
         final JobEntry job = new JobEntry(playerEntry, cancelableSession, jobId, name);
 
-        injectEditSession(sessions, cancelableSession);
+        final Operation asyncOp;
+        if (sessions == null) {
+            asyncOp = binding.create(cancelableSession);
+        } else {
+            injectEditSession(sessions, cancelableSession);
+            asyncOp = op;
+        }
 
         m_blockPlacer.addJob(playerEntry, job);
         m_schedule.runTaskAsynchronously(m_plugin, new AsyncTask(cancelableSession, playerEntry,
@@ -195,13 +251,67 @@ public class AsyncOperationProcessor implements IOperationProcessor {
                     public int task(CancelabeEditSession session)
                     throws MaxChangedBlocksException {
                         wait.checkAndWait(null);
-                        action.Execute(op);
+                        try {
+                            if (!m_regionCopy.copy(asyncOp, cancelableSession)
+                                    && !m_cuboidFill.fill(asyncOp, cancelableSession)) {
+                                runSliced(asyncOp, cancelableSession, job, wait);
+                            }
+                        } catch (WorldEditException ex) {
+                            throw new RuntimeException(ex);
+                        }
 
                         return cancelableSession.getChangeSet().size();
                     }
                 });
     }
 
+    /**
+     * Run the operation one resume step at a time. Between the steps the job
+     * is checked for cancelation, the session wait is honored and the
+     * operation waits until the player block queue drops below the soft limit
+     * so other jobs get their share of the block placer.
+     *
+     * @param op
+     * @param session
+     * @param job
+     * @param wait
+     * @throws WorldEditException
+     */
+    private void runSliced(Operation op, CancelabeEditSession session,
+            JobEntry job, WaitFor wait) throws WorldEditException {
+        int step = 0;
+        while (op != null) {
+            if (session.isCanceled() || job.getStatus() == JobEntry.JobStatus.Canceled) {
+                op.cancel();
+                return;
+            }
+
+            op = op.resume(new RunContext());
+            step++;
+            job.setStep(step);
+
+            if (op != null) {
+                wait.checkAndWait(null);
+                if (!m_blockPlacer.waitForQueue(job)) {
+                    return;
+                }
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Warn that the operation is run synchronously because the class scanner
+     * reached one of its limits
+     *
+     * @param op
+     */
+    private static void logTruncated(Operation op) {
+        AsyncWorldEditMain.log(String.format("Warning: operation %1$s reached the class scanner limits, "
+                + "running it synchronously. Increase the classScanner limits to run it async.",
+                op.getClass().getName()));
+    }
+
     /**
      * Validate the edit sessions
      *
@@ -59,13 +59,17 @@ import com.sk89q.worldedit.world.World;
 import com.sk89q.worldedit.world.registry.BlockRegistry;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import org.bukkit.Server;
 import org.bukkit.plugin.java.JavaPlugin;
@@ -74,6 +78,7 @@ import org.primesoft.asyncworldedit.playerManager.PlayerEntry;
 import org.primesoft.asyncworldedit.configuration.ConfigProvider;
 import org.primesoft.asyncworldedit.configuration.PermissionGroup;
 import org.primesoft.asyncworldedit.utils.ExceptionHelper;
+import org.primesoft.asyncworldedit.utils.InOutParam;
 import org.primesoft.asyncworldedit.worldedit.blocks.BaseBlockWrapper;
 
 /**
@@ -113,6 +118,115 @@ public class ClassScanner {
         new ClassScannerEntry(JavaPlugin.class)
     };
 
+    /**
+     * The scan plans cache (scanned types -> object class -> plan)
+     */
+    private final static ConcurrentHashMap<List<Class<?>>, ConcurrentHashMap<Class<?>, ScanPlan>> s_plans
+            = new ConcurrentHashMap<List<Class<?>>, ConcurrentHashMap<Class<?>, ScanPlan>>();
+
+    /**
+     * Precomputed scan plan for a class. Contains only the fields that can
+     * hold one of the scanned types or an object that can be scanned.
+     */
+    private static class ScanPlan {
+
+        /**
+         * The class instances are not scanned
+         */
+        private final boolean m_skip;
+
+        /**
+         * Scan the array elements
+         */
+        private final boolean m_isObjectArray;
+
+        /**
+         * Scan the iterable elements
+         */
+        private final boolean m_isIterable;
+
+        /**
+         * The accessible fields to scan
+         */
+        private final Field[] m_fields;
+
+        /**
+         * Is the field value allowed to be scanned
+         */
+        private final boolean[] m_recurse;
+
+        private ScanPlan(boolean skip, boolean isObjectArray, boolean isIterable,
+                Field[] fields, boolean[] recurse) {
+            m_skip = skip;
+            m_isObjectArray = isObjectArray;
+            m_isIterable = isIterable;
+            m_fields = fields;
+            m_recurse = recurse;
+        }
+    }
+
+    /**
+     * The scan limits and the statistics of a single scan
+     */
+    private static class ScanBudget {
+
+        /**
+         * Maximum object depth (-1 no limit)
+         */
+        private final int m_maxDepth;
+
+        /**
+         * Maximum number of scanned objects (-1 no limit)
+         */
+        private final int m_maxObjects;
+
+        /**
+         * Maximum number of scanned non null elements per array or
+         * collection (-1 no limit)
+         */
+        private final int m_maxElements;
+
+        /**
+         * Number of scanned objects
+         */
+        private int m_objects;
+
+        /**
+         * The maximum reached depth
+         */
+        private int m_depth;
+
+        /**
+         * Number of objects not scanned due to the depth limit
+         */
+        private int m_skippedDepth;
+
+        /**
+         * Number of elements not scanned due to the elements limit
+         */
+        private int m_skippedElements;
+
+        /**
+         * Was the scan stopped due to the objects limit
+         */
+        private boolean m_stopped;
+
+        private ScanBudget() {
+            m_maxDepth = ConfigProvider.getScannerMaxDepth();
+            m_maxObjects = ConfigProvider.getScannerMaxObjects();
+            m_maxElements = ConfigProvider.getScannerMaxElements();
+        }
+
+        /**
+         * Was any part of the object graph not scanned
+         *
+         * @return
+         */
+        private boolean isTruncated() {
+            return m_stopped || m_skippedDepth > 0 || m_skippedElements > 0;
+        }
+    }
+
     /**
      * Scan object (and all fields) for T
      *
@@ -121,13 +235,29 @@ public class ClassScanner {
      * @return
      */
     public static List<ClassScannerResult> scan(Class<?> types[], Object o) {
+        return scan(types, o, InOutParam.<Boolean>Out());
+    }
+
+    /**
+     * Scan object (and all fields) for T
+     *
+     * @param types The types of classes to find
+     * @param o Object to find
+     * @param truncated Set to true if a scan limit was reached and the
+     * results may be incomplete
+     * @return
+     */
+    public static List<ClassScannerResult> scan(Class<?> types[], Object o, InOutParam<Boolean> truncated) {
         List<ClassScannerResult> result = new ArrayList<ClassScannerResult>();
+        truncated.setValue(false);
         if (o == null) {
             return result;
         }
 
         Queue<ScannerQueueEntry> toScan = new ArrayDeque<ScannerQueueEntry>();
-        HashSet<Object> scanned = new HashSet<Object>();
+        Set<Object> scanned = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        ConcurrentHashMap<Class<?>, ScanPlan> plans = getPlans(types);
+        ScanBudget budget = new ScanBudget();
 
         boolean debugOn = ConfigProvider.isDebugOn();
         toScan.add(new ScannerQueueEntry(o, null, null));
@@ -150,6 +280,11 @@ public class ClassScanner {
                 continue;
             }
 
+            if (budget.m_maxObjects >= 0 && budget.m_objects >= budget.m_maxObjects) {
+                budget.m_stopped = true;
+                break;
+            }
+
             String sParent;
             if (debugOn) {
                 sParent = String.format("%1$s:%2$s", Integer.toHexString(cObject.hashCode()), cObject.getClass().getCanonicalName());
@@ -163,46 +298,63 @@ public class ClassScanner {
                 }
             } else {
                 int added = 0;
+                int depth = entry.getDepth();
+                budget.m_objects++;
+                budget.m_depth = Math.max(budget.m_depth, depth);
                 if (debugOn) {
                     AsyncWorldEditMain.log(String.format("* Scanning:\t%1$s", sParent));
                 }
                 try {
-                    for (ScannerQueueEntry f : unpack(cClass, cObject)) {
-                        Object t = f.getValue();
-                        Class<?> ct = f.getValueClass();
-                        if (t != null && ct != null) {
-                            String classMsg = null;
-                            if (debugOn) {
-                                final Field field = f.getField();
-                                final String sValue = String.format("%1$s:%2$s", Integer.toHexString(f.getValue().hashCode()), f.getValueClass().getCanonicalName());
-                                final String sField = field != null ? field.getName() : "?";
-
-                                classMsg = String.format("%s = %s", sField, sValue);
+                    ScanPlan plan = getPlan(plans, types, cClass);
+                    if (!plan.m_skip) {
+                        if (plan.m_isObjectArray) {
+                            int cnt = 0;
+                            for (Object t : (Object[]) cObject) {
+                                if (t == null) {
+                                    continue;
+                                }
+                                if (budget.m_maxElements >= 0 && cnt >= budget.m_maxElements) {
+                                    budget.m_skippedElements++;
+                                    continue;
+                                }
+                                cnt++;
+                                if (visit(types, result, toScan, t, cObject, null, true, depth, budget, debugOn)) {
+                                    added++;
+                                }
                             }
+                        }
 
-                            for (Class<?> type : types) {
-                                if (type.isAssignableFrom(ct)) {
-                                    if (debugOn) {
-                                        AsyncWorldEditMain.log(String.format("* F %1$s", classMsg));
-                                    }
-
-                                    result.add(new ClassScannerResult(t, t.getClass(), f.getParent(), f.getField()));                                    
-                                    break;
+                        if (plan.m_isIterable) {
+                            int cnt = 0;
+                            for (Object t : (Iterable<Object>) cObject) {
+                                if (t == null) {
+                                    continue;
+                                }
+                                if (budget.m_maxElements >= 0 && cnt >= budget.m_maxElements) {
+                                    budget.m_skippedElements++;
+                                    continue;
+                                }
+                                cnt++;
+                                if (visit(types, result, toScan, t, cObject, null, true, depth, budget, debugOn)) {
+                                    added++;
                                 }
                             }
+                        }
 
-                            if (!isPrimitive(ct) && !isBlackList(ct)
-                                    && !isBlackList(cClass, f.getField())) {
-                                toScan.add(f);
-                                added++;
-
-                                if (debugOn) {
-                                    AsyncWorldEditMain.log(String.format("* + %1$s", classMsg));
-                                }
-                            } else if (debugOn) {
-                                AsyncWorldEditMain.log(String.format("* - %1$s", classMsg));
+                        final Field[] fields = plan.m_fields;
+                        for (int i = 0; i < fields.length; i++) {
+                            Object t;
+                            try {
+                                t = fields[i].get(cObject);
+                            } catch (IllegalArgumentException ex) {
+                                continue;
+                            } catch (IllegalAccessException ex) {
+                                continue;
                             }
 
+                            if (visit(types, result, toScan, t, cObject, fields[i], plan.m_recurse[i], depth, budget, debugOn)) {
+                                added++;
+                            }
                         }
                     }
                 } catch (Throwable ex) {
@@ -225,81 +377,226 @@ public class ClassScanner {
         }
 
         if (debugOn) {
+            AsyncWorldEditMain.log("*");
+            AsyncWorldEditMain.log(String.format("* Scanned objects:\t%1$s (limit %2$s)%3$s",
+                    budget.m_objects, budget.m_maxObjects, budget.m_stopped ? ", stopped" : ""));
+            AsyncWorldEditMain.log(String.format("* Reached depth:\t%1$s (limit %2$s), skipped %3$s objects",
+                    budget.m_depth, budget.m_maxDepth, budget.m_skippedDepth));
+            AsyncWorldEditMain.log(String.format("* Skipped elements:\t%1$s (limit %2$s per collection)",
+                    budget.m_skippedElements, budget.m_maxElements));
             AsyncWorldEditMain.log("****************************************************************");
         }
+
+        truncated.setValue(budget.isTruncated());
         return result;
     }
 
     /**
-     * Checks if the class is a primitive (number or string)
+     * Check the value and add it to the results and the scan queue
      *
-     * @param oClass
+     * @param types
+     * @param result
+     * @param toScan
+     * @param t The value
+     * @param parent The value owner
+     * @param field The value field
+     * @param recurse Is the value allowed to be scanned
+     * @param depth The parent depth
+     * @param budget
+     * @param debugOn
+     * @return True if the value was added to the scan queue
+     */
+    private static boolean visit(Class<?>[] types, List<ClassScannerResult> result,
+            Queue<ScannerQueueEntry> toScan,
+            Object t, Object parent, Field field, boolean recurse,
+            int depth, ScanBudget budget, boolean debugOn) {
+        if (t == null) {
+            return false;
+        }
+
+        Class<?> ct = t.getClass();
+        String classMsg = null;
+        if (debugOn) {
+            final String sValue = String.format("%1$s:%2$s", Integer.toHexString(t.hashCode()), ct.getCanonicalName());
+            final String sField = field != null ? field.getName() : "?";
+
+            classMsg = String.format("%s = %s", sField, sValue);
+        }
+
+        for (Class<?> type : types) {
+            if (type.isAssignableFrom(ct)) {
+                if (debugOn) {
+                    AsyncWorldEditMain.log(String.format("* F %1$s", classMsg));
+                }
+
+                result.add(new ClassScannerResult(t, ct, parent, field));
+                break;
+            }
+        }
+
+        //Objects of the parent class continue the reference chain of the
+        //parent (linked lists, trees) and use the parent depth
+        int childDepth = ct == parent.getClass() ? depth : depth + 1;
+        if (recurse && budget.m_maxDepth >= 0 && childDepth > budget.m_maxDepth) {
+            budget.m_skippedDepth++;
+            recurse = false;
+        }
+
+        if (recurse && !isPrimitive(ct) && !isBlackList(ct)) {
+            toScan.add(new ScannerQueueEntry(t, parent, field, childDepth));
+
+            if (debugOn) {
+                AsyncWorldEditMain.log(String.format("* + %1$s", classMsg));
+            }
+            return true;
+        } else if (debugOn) {
+            AsyncWorldEditMain.log(String.format("* - %1$s", classMsg));
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the plans cache for the scanned types
+     *
+     * @param types
      * @return
      */
-    private static boolean isPrimitive(Class<?> oClass) {
-        return oClass.isPrimitive()
-                || (Character.class.isAssignableFrom(oClass))
-                || (Number.class.isAssignableFrom(oClass))
-                || (Boolean.class.isAssignableFrom(oClass))
-                || (String.class.isAssignableFrom(oClass))
-                || (UUID.class.isAssignableFrom(oClass));
+    private static ConcurrentHashMap<Class<?>, ScanPlan> getPlans(Class<?>[] types) {
+        List<Class<?>> key = Arrays.asList(types);
+        ConcurrentHashMap<Class<?>, ScanPlan> plans = s_plans.get(key);
+        if (plans == null) {
+            plans = new ConcurrentHashMap<Class<?>, ScanPlan>();
+            ConcurrentHashMap<Class<?>, ScanPlan> old = s_plans.putIfAbsent(
+                    new ArrayList<Class<?>>(key), plans);
+            if (old != null) {
+                plans = old;
+            }
+        }
+
+        return plans;
     }
 
     /**
-     * Get all fields from a class
+     * Get the cached class scan plan
      *
+     * @param plans
+     * @param types
      * @param oClass
-     * @param o
      * @return
      */
-    private static Iterable<ScannerQueueEntry> unpack(Class<?> oClass, Object o) {
-        HashSet<ScannerQueueEntry> result = new HashSet<ScannerQueueEntry>();
+    private static ScanPlan getPlan(ConcurrentHashMap<Class<?>, ScanPlan> plans,
+            Class<?>[] types, Class<?> oClass) {
+        ScanPlan plan = plans.get(oClass);
+        if (plan == null) {
+            plan = createPlan(types, oClass);
+            plans.put(oClass, plan);
+        }
 
+        return plan;
+    }
+
+    /**
+     * Build the class scan plan. Fields that can neither hold one of the
+     * scanned types nor an object that would be scanned are pruned.
+     *
+     * @param types
+     * @param oClass
+     * @return
+     */
+    private static ScanPlan createPlan(Class<?>[] types, Class<?> oClass) {
         if (isPrimitive(oClass) || isBlackList(oClass)) {
-            return result;
+            return new ScanPlan(true, false, false, new Field[0], new boolean[0]);
         }
 
+        boolean isObjectArray = false;
         if (oClass.isArray()) {
-            Class<?> componenClass = oClass;
-            while (componenClass.isArray()) {
-                componenClass = componenClass.getComponentType();
+            Class<?> componenClass = getComponentClass(oClass);
+            isObjectArray = !isPrimitive(componenClass) && !isBlackList(componenClass);
+        }
+
+        List<Field> fields = new ArrayList<Field>();
+        List<Boolean> recurse = new ArrayList<Boolean>();
+        for (Field f : getAllFields(oClass)) {
+            Class<?> fClass = f.getType();
+            boolean canScan = !isPrimitive(fClass) && !isBlackList(fClass)
+                    && !(fClass.isArray() && isPrimitive(getComponentClass(fClass)));
+            if (!canScan && !canHold(types, fClass)) {
+                continue;
             }
-            if (!isPrimitive(componenClass) && !isBlackList(componenClass)) {
-                for (Object t : (Object[]) o) {
-                    if (t != null) {
-                        result.add(new ScannerQueueEntry(t, o, null));
-                    }
-                }
+
+            try {
+                f.setAccessible(true);
+            } catch (SecurityException ex) {
+                continue;
             }
+
+            fields.add(f);
+            recurse.add(canScan && !isBlackList(oClass, f));
         }
 
-        if (Iterable.class.isAssignableFrom(oClass)) {
-            for (Object t : (Iterable<Object>) o) {
-                if (t != null) {
-                    result.add(new ScannerQueueEntry(t, o, null));
-                }
-            }
+        boolean[] recurseArray = new boolean[recurse.size()];
+        for (int i = 0; i < recurseArray.length; i++) {
+            recurseArray[i] = recurse.get(i);
         }
 
-        for (Field f : getAllFields(oClass)) {
-            boolean restore = !f.isAccessible();
-            if (restore) {
-                f.setAccessible(true);
+        return new ScanPlan(false, isObjectArray, Iterable.class.isAssignableFrom(oClass),
+                fields.toArray(new Field[0]), recurseArray);
+    }
+
+    /**
+     * Can a field of the provided class hold one of the types
+     *
+     * @param types
+     * @param fClass
+     * @return
+     */
+    private static boolean canHold(Class<?>[] types, Class<?> fClass) {
+        for (Class<?> type : types) {
+            if (type.isAssignableFrom(fClass) || fClass.isAssignableFrom(type)) {
+                return true;
             }
-            try {
-                Object t = f.get(o);
-                if (t != null) {
-                    result.add(new ScannerQueueEntry(t, o, f));
-                }
-            } catch (IllegalArgumentException ex) {
-            } catch (IllegalAccessException ex) {
+
+            if (fClass.isInterface() && !Modifier.isFinal(type.getModifiers())) {
+                return true;
             }
 
-            if (restore) {
-                f.setAccessible(false);
+            if (type.isInterface() && !fClass.isPrimitive() && !fClass.isArray()
+                    && !Modifier.isFinal(fClass.getModifiers())) {
+                return true;
             }
         }
-        return result;
+
+        return false;
+    }
+
+    /**
+     * Get the array innermost component class
+     *
+     * @param oClass
+     * @return
+     */
+    private static Class<?> getComponentClass(Class<?> oClass) {
+        while (oClass.isArray()) {
+            oClass = oClass.getComponentType();
+        }
+
+        return oClass;
+    }
+
+    /**
+     * Checks if the class is a primitive (number or string)
+     *
+     * @param oClass
+     * @return
+     */
+    private static boolean isPrimitive(Class<?> oClass) {
+        return oClass.isPrimitive()
+                || (Character.class.isAssignableFrom(oClass))
+                || (Number.class.isAssignableFrom(oClass))
+                || (Boolean.class.isAssignableFrom(oClass))
+                || (String.class.isAssignableFrom(oClass))
+                || (UUID.class.isAssignableFrom(oClass));
     }
 
     private static boolean isBlackList(Class<?> oClass) {
@@ -52,8 +52,13 @@ public class ScannerQueueEntry {
     private final Object m_value;
     private final Class<?> m_valueClass;
     private final Field m_field;
+    private final int m_depth;
 
     public ScannerQueueEntry(Object value, Object parent, Field field) {
+        this(value, parent, field, 0);
+    }
+
+    public ScannerQueueEntry(Object value, Object parent, Field field, int depth) {
         /*
          * String sParent = parent == null ? 
          *        "null:null" : (parent.hashCode() + ":" + parent.getClass().getCanonicalName());
@@ -67,6 +72,7 @@ public class ScannerQueueEntry {
         m_value = value;
         m_valueClass = value != null ? value.getClass() : null;
         m_field = field;
+        m_depth = depth;
     }
 
     public Object getParent() {
@@ -84,4 +90,8 @@ public class ScannerQueueEntry {
     public Field getField() {
         return m_field;
     }
+
+    public int getDepth() {
+        return m_depth;
+    }
 }
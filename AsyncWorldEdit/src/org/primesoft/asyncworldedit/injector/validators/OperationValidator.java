@@ -41,6 +41,7 @@
 package org.primesoft.asyncworldedit.injector.validators;
 
 import com.sk89q.worldedit.function.operation.Operation;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import org.primesoft.asyncworldedit.AsyncWorldEditMain;
 import org.primesoft.asyncworldedit.configuration.ConfigProvider;
@@ -62,6 +63,12 @@ public class OperationValidator {
      */
     private static final Pattern[] s_whiteList;
 
+    /**
+     * The validation results cache
+     */
+    private static final ConcurrentHashMap<Class<?>, Boolean> s_cache
+            = new ConcurrentHashMap<Class<?>, Boolean>();
+
     static {
         //No operations are on the black list (for now!)
         s_blackList = new Pattern[]{};
@@ -79,7 +86,28 @@ public class OperationValidator {
      */
     public static boolean isValid(Operation op) {
         boolean debugOn = ConfigProvider.isDebugOn();
-        Class c = op.getClass();
+        Class<?> c = op.getClass();
+        if (debugOn) {
+            return validate(c, true);
+        }
+
+        Boolean result = s_cache.get(c);
+        if (result == null) {
+            result = validate(c, false);
+            s_cache.put(c, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Match the operation class against the black and white list
+     *
+     * @param c
+     * @param debugOn
+     * @return
+     */
+    private static boolean validate(Class<?> c, boolean debugOn) {
         String className = c.getCanonicalName();
 
         if (debugOn) {
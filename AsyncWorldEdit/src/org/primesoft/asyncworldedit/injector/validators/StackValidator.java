@@ -40,6 +40,7 @@
  */
 package org.primesoft.asyncworldedit.injector.validators;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.primesoft.asyncworldedit.AsyncWorldEditMain;
@@ -75,6 +76,32 @@ public class StackValidator {
         Pattern.compile(".*asyncworldedit.*AsyncOperationProcessor.*")
     };
 
+    /**
+     * The frame is not on any list
+     */
+    private static final byte FRAME_NONE = 0;
+
+    /**
+     * The frame is on the blacklist
+     */
+    private static final byte FRAME_BLACKLIST = 1;
+
+    /**
+     * The frame is on the whitelist
+     */
+    private static final byte FRAME_WHITELIST = 2;
+
+    /**
+     * The frame matches a count pattern
+     */
+    private static final byte FRAME_COUNT = 4;
+
+    /**
+     * The frame classification cache (class name -> method name -> flags)
+     */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, Byte>> s_frameCache
+            = new ConcurrentHashMap<String, ConcurrentHashMap<String, Byte>>();
+
     /**
      * Does the stack trace allow asyncing
      *
@@ -83,6 +110,11 @@ public class StackValidator {
      */
     public static boolean isVaild(InOutParam<String> methodName) {
         final boolean debugOn = ConfigProvider.isDebugOn();
+        final StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
+        if (!debugOn) {
+            return validateCached(stackTrace, methodName);
+        }
+
         try {
             if (debugOn) {
                 AsyncWorldEditMain.log("****************************************************************");
@@ -90,10 +122,10 @@ public class StackValidator {
                 AsyncWorldEditMain.log("****************************************************************");
             }
 
-            if (!validateStack(methodName)) {
+            if (!validateStack(stackTrace, methodName)) {
                 return false;
             }
-            if (!validateCount()) {
+            if (!validateCount(stackTrace)) {
                 return false;
             }
 
@@ -106,15 +138,122 @@ public class StackValidator {
         }
     }
 
+    /**
+     * Validate the stack trace using the cached frame classification. The
+     * frames are walked from the outermost one, the first black or white
+     * listed frame decides.
+     *
+     * @param stackTrace
+     * @param methodName
+     * @return
+     */
+    private static boolean validateCached(StackTraceElement[] stackTrace,
+            InOutParam<String> methodName) {
+        String name = null;
+        int count = 0;
+        for (int i = stackTrace.length - 1; i >= 0; i--) {
+            StackTraceElement element = stackTrace[i];
+            byte flags = classify(element.getClassName(), element.getMethodName());
+
+            if ((flags & FRAME_COUNT) != 0) {
+                count++;
+                if (count >= 2) {
+                    return false;
+                }
+            }
+
+            if (name == null) {
+                if ((flags & FRAME_BLACKLIST) != 0) {
+                    return false;
+                }
+                if ((flags & FRAME_WHITELIST) != 0) {
+                    name = element.getMethodName();
+                }
+            }
+        }
+
+        if (name == null) {
+            return false;
+        }
+
+        methodName.setValue(name);
+        return true;
+    }
+
+    /**
+     * Get the cached frame classification
+     *
+     * @param className
+     * @param methodName
+     * @return
+     */
+    private static byte classify(String className, String methodName) {
+        ConcurrentHashMap<String, Byte> methods = s_frameCache.get(className);
+        if (methods == null) {
+            methods = new ConcurrentHashMap<String, Byte>();
+            ConcurrentHashMap<String, Byte> old = s_frameCache.putIfAbsent(className, methods);
+            if (old != null) {
+                methods = old;
+            }
+        }
+
+        Byte result = methods.get(methodName);
+        if (result == null) {
+            result = matchFrame(className, methodName);
+            methods.put(methodName, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Match the frame against the operation entries and the count patterns
+     *
+     * @param className
+     * @param methodName
+     * @return
+     */
+    private static byte matchFrame(String className, String methodName) {
+        byte result = FRAME_NONE;
+
+        for (Pattern p : s_countPatterns) {
+            if (p.matcher(className).matches()) {
+                result |= FRAME_COUNT;
+                break;
+            }
+        }
+
+        for (StackValidatorEntry entry : s_data) {
+            if (!entry.getClassPattern().matcher(className).matches()) {
+                continue;
+            }
+
+            for (Pattern pattern : entry.getMethodBlackList()) {
+                if (pattern.matcher(methodName).matches()) {
+                    return (byte) (result | FRAME_BLACKLIST);
+                }
+            }
+
+            for (Pattern pattern : entry.getMethodWhiteList()) {
+                if (pattern.matcher(methodName).matches()) {
+                    return (byte) (result | FRAME_WHITELIST);
+                }
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Validate the stack trace possition
      *
+     * @param stackTrace
      * @param methodName
      * @return
      */
-    private static boolean validateStack(InOutParam<String> methodName) {
+    private static boolean validateStack(StackTraceElement[] stackTrace,
+            InOutParam<String> methodName) {
         final boolean debugOn = ConfigProvider.isDebugOn();
-        StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
         int i = stackTrace.length - 1;
         try {
             for (; i >= 0; i--) {
@@ -185,11 +324,11 @@ public class StackValidator {
     /**
      * Validate stack entry count
      *
+     * @param stackTrace
      * @return
      */
-    private static boolean validateCount() {
+    private static boolean validateCount(StackTraceElement[] stackTrace) {
         final boolean debugOn = ConfigProvider.isDebugOn();
-        final StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
 
         boolean result = true;
 
@@ -69,6 +69,9 @@ public enum MessageType {
     BLOCK_PLACER_DONE("BLOCK_PLACER_DONE"),
     BLOCK_PLACER_DONE_WORLD("BLOCK_PLACER_DONE_WORLD"),
     BLOCK_PLACER_DONE_CLIP("BLOCK_PLACER_DONE_CLIP"),
+    BLOCK_COUNT_PROGRESS("BLOCK_COUNT_PROGRESS"),
+    //The stored undo history
+    UNDO_HISTORY_RESTORED("UNDO_HISTORY_RESTORED"),
     //The reload command
     CMD_RELOAD_ERROR("CMD_RELOAD_ERROR"),
     CMD_RELOAD_DONE("CMD_RELOAD_DONE"),
@@ -103,6 +106,7 @@ public enum MessageType {
     CMD_JOBS_STATUS_INITIALIZING("CMD_JOBS_STATUS_INITIALIZING"),
     CMD_JOBS_STATUS_PLACING_BLOCKS("CMD_JOBS_STATUS_PLACING_BLOCKS"),
     CMD_JOBS_STATUS_PREPARING("CMD_JOBS_STATUS_PREPARING"),
+    CMD_JOBS_STATUS_PREPARING_STEP("CMD_JOBS_STATUS_PREPARING_STEP"),
     CMD_JOBS_STATUS_WAITING("CMD_JOBS_STATUS_WAITING"),
     //The cancel command
     CMD_CANCEL_REMOVED("CMD_CANCEL_REMOVED"),
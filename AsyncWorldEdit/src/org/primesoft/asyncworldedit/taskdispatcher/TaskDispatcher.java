@@ -268,6 +268,19 @@ public class TaskDispatcher implements Runnable, ITaskDispatcher {
         startFastTask();
     }
 
+    /**
+     * Perform operation on the main server thread and wait for the result.
+     * The result must not be null.
+     *
+     * @param <T>
+     * @param action
+     * @return
+     */
+    @Override
+    public <T> T performSync(Func<T> action) {
+        return queueFastOperation(action);
+    }
+
     /**
      * Is this thread the main bukkit thread
      *
@@ -0,0 +1,163 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared pool of worker threads used to split CPU heavy planning work
+ *
+ * @author SBPrime
+ */
+public class WorkerPool {
+
+    /**
+     * The number of workers
+     */
+    private final static int s_size = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The mutex
+     */
+    private final static Object s_mutex = new Object();
+
+    /**
+     * The executor (lazy created)
+     */
+    private static ExecutorService s_executor = null;
+
+    /**
+     * Get the number of workers
+     *
+     * @return
+     */
+    public static int getSize() {
+        return s_size;
+    }
+
+    /**
+     * Get the executor
+     *
+     * @return
+     */
+    private static ExecutorService getExecutor() {
+        synchronized (s_mutex) {
+            if (s_executor == null || s_executor.isShutdown()) {
+                final AtomicInteger id = new AtomicInteger();
+                s_executor = Executors.newFixedThreadPool(s_size, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "AWE worker " + id.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+
+            return s_executor;
+        }
+    }
+
+    /**
+     * Submit a single task to the pool
+     *
+     * @param <T>
+     * @param task
+     * @return
+     */
+    public static <T> Future<T> submit(Callable<T> task) {
+        return getExecutor().submit(task);
+    }
+
+    /**
+     * Run all tasks and wait for the results. When there is only one task or
+     * the caller is a worker thread the tasks are executed on the calling
+     * thread.
+     *
+     * @param <T>
+     * @param tasks
+     * @return Results in the order of the tasks
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks)
+            throws InterruptedException, ExecutionException {
+        List<T> result = new ArrayList<T>(tasks.size());
+        if (tasks.size() < 2 || s_size < 2
+                || Thread.currentThread().getName().startsWith("AWE worker ")) {
+            for (Callable<T> task : tasks) {
+                try {
+                    result.add(task.call());
+                } catch (Exception ex) {
+                    throw new ExecutionException(ex);
+                }
+            }
+            return result;
+        }
+
+        List<Future<T>> futures = getExecutor().invokeAll(tasks);
+        for (Future<T> f : futures) {
+            result.add(f.get());
+        }
+
+        return result;
+    }
+
+    /**
+     * Stop the worker threads
+     */
+    public static void stop() {
+        synchronized (s_mutex) {
+            if (s_executor != null) {
+                s_executor.shutdownNow();
+                s_executor = null;
+            }
+        }
+    }
+}
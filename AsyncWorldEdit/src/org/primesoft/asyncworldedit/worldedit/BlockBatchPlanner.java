@@ -0,0 +1,247 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.worldedit;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import org.primesoft.asyncworldedit.utils.WorkerPool;
+
+/**
+ * Plans the block changes for undo/redo. The changes are partitioned by chunk,
+ * each chunk is deduplicated (last write wins) on the worker pool and the
+ * result is returned as chunk ordered batches.
+ *
+ * @author SBPrime
+ */
+public class BlockBatchPlanner {
+
+    /**
+     * Minimum number of chunks to use the worker pool
+     */
+    private final static int PARALLEL_CHUNKS = 4;
+
+    /**
+     * Single chunk batch of blocks
+     */
+    public static class Batch {
+
+        private final int m_chunkX;
+        private final int m_chunkZ;
+        private final Vector[] m_positions;
+        private final BaseBlock[] m_blocks;
+
+        Batch(int chunkX, int chunkZ, Vector[] positions, BaseBlock[] blocks) {
+            m_chunkX = chunkX;
+            m_chunkZ = chunkZ;
+            m_positions = positions;
+            m_blocks = blocks;
+        }
+
+        public int getChunkX() {
+            return m_chunkX;
+        }
+
+        public int getChunkZ() {
+            return m_chunkZ;
+        }
+
+        public int size() {
+            return m_positions.length;
+        }
+
+        public Vector getPosition(int idx) {
+            return m_positions[idx];
+        }
+
+        public BaseBlock getBlock(int idx) {
+            return m_blocks[idx];
+        }
+    }
+
+    /**
+     * Raw block changes for a single chunk in apply order
+     */
+    private static class ChunkChanges {
+
+        private final int m_chunkX;
+        private final int m_chunkZ;
+        private final List<Vector> m_positions = new ArrayList<Vector>();
+        private final List<BaseBlock> m_blocks = new ArrayList<BaseBlock>();
+
+        private ChunkChanges(int chunkX, int chunkZ) {
+            m_chunkX = chunkX;
+            m_chunkZ = chunkZ;
+        }
+    }
+
+    /**
+     * The changes grouped by chunk
+     */
+    private final HashMap<Long, ChunkChanges> m_chunks = new HashMap<Long, ChunkChanges>();
+
+    /**
+     * Number of added changes
+     */
+    private int m_count;
+
+    /**
+     * Add block change. Changes need to be added in the order they should be
+     * applied, the last change for a position wins.
+     *
+     * @param pos
+     * @param block
+     */
+    public void add(Vector pos, BaseBlock block) {
+        int cx = pos.getBlockX() >> 4;
+        int cz = pos.getBlockZ() >> 4;
+        Long key = ((long) cx << 32) | (cz & 0xffffffffL);
+
+        ChunkChanges chunk = m_chunks.get(key);
+        if (chunk == null) {
+            chunk = new ChunkChanges(cx, cz);
+            m_chunks.put(key, chunk);
+        }
+
+        chunk.m_positions.add(pos);
+        chunk.m_blocks.add(block);
+        m_count++;
+    }
+
+    /**
+     * Number of added changes
+     *
+     * @return
+     */
+    public int getCount() {
+        return m_count;
+    }
+
+    /**
+     * Build the chunk batches
+     *
+     * @return Batches ordered by chunk X, Z
+     */
+    public List<Batch> plan() {
+        ChunkChanges[] chunks = m_chunks.values().toArray(new ChunkChanges[0]);
+        m_chunks.clear();
+        Arrays.sort(chunks, new Comparator<ChunkChanges>() {
+            @Override
+            public int compare(ChunkChanges o1, ChunkChanges o2) {
+                if (o1.m_chunkX != o2.m_chunkX) {
+                    return o1.m_chunkX < o2.m_chunkX ? -1 : 1;
+                }
+                if (o1.m_chunkZ != o2.m_chunkZ) {
+                    return o1.m_chunkZ < o2.m_chunkZ ? -1 : 1;
+                }
+                return 0;
+            }
+        });
+
+        if (chunks.length < PARALLEL_CHUNKS) {
+            List<Batch> result = new ArrayList<Batch>(chunks.length);
+            for (ChunkChanges chunk : chunks) {
+                result.add(planChunk(chunk));
+            }
+            return result;
+        }
+
+        List<Callable<Batch>> tasks = new ArrayList<Callable<Batch>>(chunks.length);
+        for (final ChunkChanges chunk : chunks) {
+            tasks.add(new Callable<Batch>() {
+                @Override
+                public Batch call() throws Exception {
+                    return planChunk(chunk);
+                }
+            });
+        }
+
+        try {
+            return WorkerPool.invokeAll(tasks);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Block planning interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Block planning failed", ex.getCause());
+        }
+    }
+
+    /**
+     * Deduplicate the chunk changes, the batch order follows the last write for
+     * each position
+     *
+     * @param chunk
+     * @return
+     */
+    private static Batch planChunk(ChunkChanges chunk) {
+        LinkedHashMap<BlockVector, Integer> positions = new LinkedHashMap<BlockVector, Integer>();
+        List<Vector> pos = chunk.m_positions;
+        for (int i = 0; i < pos.size(); i++) {
+            BlockVector key = pos.get(i).toBlockVector();
+            positions.remove(key);
+            positions.put(key, i);
+        }
+
+        int size = positions.size();
+        Vector[] resultPos = new Vector[size];
+        BaseBlock[] resultBlocks = new BaseBlock[size];
+        int idx = 0;
+        for (Iterator<Map.Entry<BlockVector, Integer>> it = positions.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<BlockVector, Integer> entry = it.next();
+            int i = entry.getValue();
+            resultPos[idx] = pos.get(i);
+            resultBlocks[idx] = chunk.m_blocks.get(i);
+            idx++;
+        }
+
+        return new Batch(chunk.m_chunkX, chunk.m_chunkZ, resultPos, resultBlocks);
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.worldedit;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.Blocks;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.Countable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.primesoft.asyncworldedit.api.taskdispatcher.ITaskDispatcher;
+import org.primesoft.asyncworldedit.playerManager.PlayerEntry;
+import org.primesoft.asyncworldedit.strings.MessageType;
+import org.primesoft.asyncworldedit.utils.Func;
+import org.primesoft.asyncworldedit.utils.WorkerPool;
+
+/**
+ * Block counting engine for the block distribution and count operations. The
+ * chunks are read as snapshots (in batches), each chunk is counted on the
+ * worker pool and the chunk histograms are merged.
+ *
+ * @author SBPrime
+ */
+public class BlockDistribution {
+
+    /**
+     * Number of chunks read in one dispatcher call
+     */
+    private final static int BATCH_SIZE = 64;
+
+    /**
+     * Minimum number of batches to report the progress
+     */
+    private final static int PROGRESS_BATCHES = 8;
+
+    /**
+     * Number of block ids
+     */
+    private final static int MAX_ID = 4096;
+
+    /**
+     * Histogram of a single chunk, key is (id << 4) | data
+     */
+    private static class ChunkHistogram {
+
+        private final int[] m_keys;
+        private final int[] m_counts;
+
+        private ChunkHistogram(int[] keys, int[] counts) {
+            m_keys = keys;
+            m_counts = counts;
+        }
+    }
+
+    /**
+     * The task dispatcher
+     */
+    private final ITaskDispatcher m_dispatcher;
+
+    /**
+     * The world
+     */
+    private final World m_world;
+
+    /**
+     * The player
+     */
+    private final PlayerEntry m_player;
+
+    public BlockDistribution(ITaskDispatcher dispatcher, World world, PlayerEntry player) {
+        m_dispatcher = dispatcher;
+        m_world = world;
+        m_player = player;
+    }
+
+    /**
+     * Get the block type distribution
+     *
+     * @param region
+     * @return
+     */
+    public List<Countable<Integer>> getDistribution(Region region) {
+        int[] histogram = count(region);
+        List<Countable<Integer>> result = new ArrayList<Countable<Integer>>();
+
+        for (int id = 0; id < MAX_ID; id++) {
+            int cnt = 0;
+            for (int data = 0; data < 16; data++) {
+                cnt += histogram[(id << 4) | data];
+            }
+
+            if (cnt > 0) {
+                result.add(new Countable<Integer>(id, cnt));
+            }
+        }
+
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Get the block distribution with data values
+     *
+     * @param region
+     * @return
+     */
+    public List<Countable<BaseBlock>> getDistributionWithData(Region region) {
+        int[] histogram = count(region);
+        List<Countable<BaseBlock>> result = new ArrayList<Countable<BaseBlock>>();
+
+        for (int key = 0; key < histogram.length; key++) {
+            if (histogram[key] > 0) {
+                result.add(new Countable<BaseBlock>(new BaseBlock(key >> 4, key & 0xf), histogram[key]));
+            }
+        }
+
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Count the blocks matching the search blocks (fuzzy match)
+     *
+     * @param region
+     * @param searchBlocks
+     * @return
+     */
+    public int countBlocks(Region region, Set<BaseBlock> searchBlocks) {
+        int[] histogram = count(region);
+        int result = 0;
+
+        for (int key = 0; key < histogram.length; key++) {
+            if (histogram[key] > 0
+                    && Blocks.containsFuzzy(searchBlocks, new BaseBlock(key >> 4, key & 0xf))) {
+                result += histogram[key];
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Build the region histogram
+     *
+     * @param region
+     * @return
+     */
+    private int[] count(final Region region) {
+        final int[] result = new int[MAX_ID << 4];
+        final int maxHeight = m_world.getMaxHeight();
+        final List<Vector2D> chunks = new ArrayList<Vector2D>(region.getChunks());
+        final int batches = (chunks.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        final boolean progress = batches >= PROGRESS_BATCHES && m_player != null
+                && m_player.isPlayer() && !m_dispatcher.isMainTask();
+        int lastProgress = 0;
+
+        for (int i = 0; i < chunks.size(); i += BATCH_SIZE) {
+            List<Vector2D> batch = chunks.subList(i, Math.min(i + BATCH_SIZE, chunks.size()));
+            List<ChunkSnapshot> snapshots = takeSnapshots(batch);
+            List<Callable<ChunkHistogram>> tasks = new ArrayList<Callable<ChunkHistogram>>(batch.size());
+            for (int j = 0; j < batch.size(); j++) {
+                final Vector2D chunk = batch.get(j);
+                final ChunkSnapshot snapshot = snapshots.get(j);
+                tasks.add(new Callable<ChunkHistogram>() {
+                    @Override
+                    public ChunkHistogram call() throws Exception {
+                        return count(snapshot, chunk.getBlockX(), chunk.getBlockZ(), region, maxHeight);
+                    }
+                });
+            }
+
+            List<ChunkHistogram> histograms;
+            try {
+                histograms = WorkerPool.invokeAll(tasks);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Block counting interrupted", ex);
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Block counting failed", ex.getCause());
+            }
+
+            for (ChunkHistogram histogram : histograms) {
+                for (int j = 0; j < histogram.m_keys.length; j++) {
+                    result[histogram.m_keys[j]] += histogram.m_counts[j];
+                }
+            }
+
+            if (progress) {
+                int percent = (i / BATCH_SIZE + 1) * 10 / batches * 10;
+                if (percent > lastProgress && percent < 100) {
+                    lastProgress = percent;
+                    m_player.say(MessageType.BLOCK_COUNT_PROGRESS.format(percent));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Take the chunk snapshots on the main thread
+     *
+     * @param chunks
+     * @return
+     */
+    private List<ChunkSnapshot> takeSnapshots(final List<Vector2D> chunks) {
+        return m_dispatcher.performSync(new Func<List<ChunkSnapshot>>() {
+            @Override
+            public List<ChunkSnapshot> execute() {
+                List<ChunkSnapshot> result = new ArrayList<ChunkSnapshot>(chunks.size());
+                for (Vector2D v : chunks) {
+                    result.add(m_world.getChunkAt(v.getBlockX(), v.getBlockZ()).getChunkSnapshot(false, false, false));
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Count the part of the chunk that is inside the region. Positions outside
+     * of the world height are counted as air.
+     *
+     * @param snapshot
+     * @param chunkX
+     * @param chunkZ
+     * @param region
+     * @param maxHeight
+     * @return
+     */
+    private static ChunkHistogram count(ChunkSnapshot snapshot, int chunkX, int chunkZ,
+            Region region, int maxHeight) {
+        Vector min = region.getMinimumPoint();
+        Vector max = region.getMaximumPoint();
+        int baseX = chunkX << 4;
+        int baseZ = chunkZ << 4;
+        int minX = Math.max(0, min.getBlockX() - baseX);
+        int maxX = Math.min(15, max.getBlockX() - baseX);
+        int minZ = Math.max(0, min.getBlockZ() - baseZ);
+        int maxZ = Math.min(15, max.getBlockZ() - baseZ);
+        boolean isCuboid = region instanceof CuboidRegion;
+
+        int[] histogram = new int[MAX_ID << 4];
+        for (int y = min.getBlockY(); y <= max.getBlockY(); y++) {
+            boolean isInside = y >= 0 && y < maxHeight;
+            boolean isEmpty = !isInside || snapshot.isSectionEmpty(y >> 4);
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int x = minX; x <= maxX; x++) {
+                    if (!isCuboid && !region.contains(new Vector(baseX + x, y, baseZ + z))) {
+                        continue;
+                    }
+
+                    if (isEmpty) {
+                        histogram[0]++;
+                    } else {
+                        histogram[(snapshot.getBlockTypeId(x, y, z) << 4) | (snapshot.getBlockData(x, y, z) & 0xf)]++;
+                    }
+                }
+            }
+        }
+
+        int size = 0;
+        for (int cnt : histogram) {
+            if (cnt > 0) {
+                size++;
+            }
+        }
+
+        int[] keys = new int[size];
+        int[] counts = new int[size];
+        int idx = 0;
+        for (int key = 0; key < histogram.length; key++) {
+            if (histogram[key] > 0) {
+                keys[idx] = key;
+                counts[idx] = histogram[key];
+                idx++;
+            }
+        }
+
+        return new ChunkHistogram(keys, counts);
+    }
+}
@@ -40,7 +40,6 @@
  */
 package org.primesoft.asyncworldedit.worldedit;
 
-import org.primesoft.asyncworldedit.worldedit.blocks.BaseBlockWrapper;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.entity.BaseEntity;
@@ -126,6 +125,10 @@ public class CancelabeEditSession extends EditSessionStub {
         m_cWorld.cancel();
     }
 
+    public int getJobId() {
+        return m_jobId;
+    }
+
     @Override
     public int countBlock(Region region, Set<Integer> searchIDs) {
         return m_parent.countBlock(region, searchIDs);
@@ -241,8 +244,7 @@ public class CancelabeEditSession extends EditSessionStub {
             throw new IllegalArgumentException(new SessionCanceled());
         }
         forceFlush();
-        return super.setBlock(VectorWrapper.wrap(position, m_jobId, true, m_player),
-                BaseBlockWrapper.wrap(block, m_jobId, true, m_player), stage);
+        return super.setBlock(position, block, stage);
     }
 
     @Override
@@ -253,8 +255,7 @@ public class CancelabeEditSession extends EditSessionStub {
             throw new IllegalArgumentException(new SessionCanceled());
         }
 
-        return super.setBlock(VectorWrapper.wrap(pt, m_jobId, true, m_player),
-                BaseBlockWrapper.wrap(block, m_jobId, true, m_player));
+        return super.setBlock(pt, block);
     }
 
     @Override
@@ -265,7 +266,7 @@ public class CancelabeEditSession extends EditSessionStub {
             throw new IllegalArgumentException(new SessionCanceled());
         }
 
-        return super.setBlock(VectorWrapper.wrap(pt, m_jobId, true, m_player), pat);
+        return super.setBlock(pt, pat);
     }
 
     @Override
@@ -285,8 +286,7 @@ public class CancelabeEditSession extends EditSessionStub {
             throw new IllegalArgumentException(new SessionCanceled());
         }
 
-        return super.setBlockIfAir(VectorWrapper.wrap(pt, m_jobId, true, m_player),
-                BaseBlockWrapper.wrap(block, m_jobId, true, m_player));
+        return super.setBlockIfAir(pt, block);
     }
 
     @Override
@@ -295,8 +295,7 @@ public class CancelabeEditSession extends EditSessionStub {
         if (m_cWorld.isCanceled()) {
             throw new IllegalArgumentException(new SessionCanceled());
         }
-        return super.setChanceBlockIfAir(VectorWrapper.wrap(pos, m_jobId, true, m_player),
-                BaseBlockWrapper.wrap(block, m_jobId, true, m_player), c);
+        return super.setChanceBlockIfAir(pos, block, c);
     }
 
     @Override
@@ -314,10 +313,7 @@ public class CancelabeEditSession extends EditSessionStub {
     }
 
     public void doRedo(EditSession sess) {
-        Mask mask = sess.getMask();
-        sess.setMask(getMask());
-        m_parent.doRedo(sess);
-        sess.setMask(mask);
+        UndoProcessor.processRedo(m_parent, this, sess);
     }
 
     @Override
@@ -325,8 +321,7 @@ public class CancelabeEditSession extends EditSessionStub {
         if (m_cWorld.isCanceled()) {
             throw new IllegalArgumentException(new SessionCanceled());
         }
-        return super.smartSetBlock(VectorWrapper.wrap(pt, m_jobId, true, m_player),
-                BaseBlockWrapper.wrap(block, m_jobId, true, m_player));
+        return super.smartSetBlock(pt, block);
     }
 
     public void resetAsync() {
@@ -0,0 +1,312 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.worldedit;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.function.entity.ExtentEntityCopy;
+import com.sk89q.worldedit.function.mask.Masks;
+import com.sk89q.worldedit.function.operation.ForwardExtentCopy;
+import com.sk89q.worldedit.function.operation.Operation;
+import com.sk89q.worldedit.regions.Region;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.primesoft.asyncworldedit.AsyncWorldEditMain;
+import org.primesoft.asyncworldedit.api.taskdispatcher.ITaskDispatcher;
+import org.primesoft.asyncworldedit.utils.Func;
+import org.primesoft.asyncworldedit.utils.Reflection;
+import org.primesoft.asyncworldedit.utils.SessionCanceled;
+import org.primesoft.asyncworldedit.utils.WorkerPool;
+
+/**
+ * Copy engine for region to clipboard copies. The chunks are read as
+ * immutable snapshots on the main thread (in batches), the snapshots are
+ * decoded on the worker pool and the blocks are stored in the clipboard.
+ *
+ * @author SBPrime
+ */
+public class ChunkSnapshotCopy {
+
+    /**
+     * Number of chunks read in one dispatcher call
+     */
+    private final static int BATCH_SIZE = 64;
+
+    /**
+     * Snapshot of a single chunk
+     */
+    private static class ChunkData {
+
+        private final int m_chunkX;
+        private final int m_chunkZ;
+        private final ChunkSnapshot m_snapshot;
+        private final List<BlockVector> m_tileEntities;
+
+        private ChunkData(int chunkX, int chunkZ, ChunkSnapshot snapshot, List<BlockVector> tileEntities) {
+            m_chunkX = chunkX;
+            m_chunkZ = chunkZ;
+            m_snapshot = snapshot;
+            m_tileEntities = tileEntities;
+        }
+    }
+
+    /**
+     * The decoded blocks of a single chunk
+     */
+    private static class ChunkBlocks {
+
+        private final int m_chunkX;
+        private final int m_chunkZ;
+        private final int[] m_positions;
+        private final int[] m_blocks;
+        private final int m_count;
+
+        private ChunkBlocks(int chunkX, int chunkZ, int[] positions, int[] blocks, int count) {
+            m_chunkX = chunkX;
+            m_chunkZ = chunkZ;
+            m_positions = positions;
+            m_blocks = blocks;
+            m_count = count;
+        }
+    }
+
+    /**
+     * The task dispatcher
+     */
+    private final ITaskDispatcher m_dispatcher;
+
+    public ChunkSnapshotCopy(AsyncWorldEditMain plugin) {
+        m_dispatcher = plugin.getTaskDispatcher();
+    }
+
+    /**
+     * Perform the operation if it is a plain copy from the edit session to a
+     * clipboard
+     *
+     * @param op
+     * @param session
+     * @return false if the operation is not supported
+     * @throws WorldEditException
+     */
+    public boolean copy(Operation op, CancelabeEditSession session) throws WorldEditException {
+        if (!(op instanceof ForwardExtentCopy)) {
+            return false;
+        }
+
+        ForwardExtentCopy copy = (ForwardExtentCopy) op;
+        if (!copy.getTransform().isIdentity() || copy.getRepetitions() != 1
+                || copy.getSourceFunction() != null || copy.getSourceMask() != Masks.alwaysTrue()
+                || copy.isRemovingEntities()) {
+            return false;
+        }
+
+        Extent source = Reflection.get(ForwardExtentCopy.class, Extent.class, copy, "source", "Unable to get copy source");
+        Extent destination = Reflection.get(ForwardExtentCopy.class, Extent.class, copy, "destination", "Unable to get copy destination");
+        Region region = Reflection.get(ForwardExtentCopy.class, Region.class, copy, "region", "Unable to get copy region");
+        Vector from = Reflection.get(ForwardExtentCopy.class, Vector.class, copy, "from", "Unable to get copy origin");
+        Vector to = Reflection.get(ForwardExtentCopy.class, Vector.class, copy, "to", "Unable to get copy target");
+        World world = session.getParent().getCBWorld();
+
+        if (source != session || !(destination instanceof Clipboard) || region == null
+                || from == null || to == null || world == null) {
+            return false;
+        }
+
+        Vector offset = to.subtract(from);
+        List<Vector2D> chunks = new ArrayList<Vector2D>(region.getChunks());
+        for (int i = 0; i < chunks.size(); i += BATCH_SIZE) {
+            if (session.isCanceled()) {
+                throw new IllegalArgumentException(new SessionCanceled());
+            }
+
+            List<ChunkData> snapshots = takeSnapshots(world, chunks.subList(i, Math.min(i + BATCH_SIZE, chunks.size())));
+            for (ChunkBlocks blocks : decode(snapshots, region, world.getMaxHeight())) {
+                int baseX = blocks.m_chunkX << 4;
+                int baseZ = blocks.m_chunkZ << 4;
+                for (int j = 0; j < blocks.m_count; j++) {
+                    int p = blocks.m_positions[j];
+                    int b = blocks.m_blocks[j];
+                    Vector pt = new Vector(baseX + (p & 0xf), p >> 8, baseZ + ((p >> 4) & 0xf));
+                    destination.setBlock(pt.add(offset), new BaseBlock(b >> 4, b & 0xf));
+                }
+            }
+
+            for (ChunkData data : snapshots) {
+                for (BlockVector pt : data.m_tileEntities) {
+                    if (region.contains(pt)) {
+                        destination.setBlock(pt.add(offset), session.getBlock(pt));
+                    }
+                }
+            }
+        }
+
+        ExtentEntityCopy entityCopy = new ExtentEntityCopy(from, destination, to, copy.getTransform());
+        for (Entity entity : session.getEntities(region)) {
+            entityCopy.apply(entity);
+        }
+
+        return true;
+    }
+
+    /**
+     * Take the chunk snapshots on the main thread
+     *
+     * @param world
+     * @param chunks
+     * @return
+     */
+    private List<ChunkData> takeSnapshots(final World world, final List<Vector2D> chunks) {
+        return m_dispatcher.performSync(new Func<List<ChunkData>>() {
+            @Override
+            public List<ChunkData> execute() {
+                List<ChunkData> result = new ArrayList<ChunkData>(chunks.size());
+                for (Vector2D v : chunks) {
+                    Chunk chunk = world.getChunkAt(v.getBlockX(), v.getBlockZ());
+                    List<BlockVector> tileEntities = new ArrayList<BlockVector>();
+                    for (BlockState state : chunk.getTileEntities()) {
+                        tileEntities.add(new BlockVector(state.getX(), state.getY(), state.getZ()));
+                    }
+
+                    result.add(new ChunkData(v.getBlockX(), v.getBlockZ(),
+                            chunk.getChunkSnapshot(false, false, false), tileEntities));
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Decode the snapshots on the worker pool
+     *
+     * @param snapshots
+     * @param region
+     * @param maxHeight
+     * @return
+     */
+    private static List<ChunkBlocks> decode(List<ChunkData> snapshots, final Region region, final int maxHeight) {
+        List<Callable<ChunkBlocks>> tasks = new ArrayList<Callable<ChunkBlocks>>(snapshots.size());
+        for (final ChunkData data : snapshots) {
+            tasks.add(new Callable<ChunkBlocks>() {
+                @Override
+                public ChunkBlocks call() throws Exception {
+                    return decode(data, region, maxHeight);
+                }
+            });
+        }
+
+        try {
+            return WorkerPool.invokeAll(tasks);
+        } catch (InterruptedException ex) {
+            throw new IllegalArgumentException(new SessionCanceled());
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /**
+     * Decode the part of the chunk that is inside the region
+     *
+     * @param data
+     * @param region
+     * @param maxHeight
+     * @return
+     */
+    private static ChunkBlocks decode(ChunkData data, Region region, int maxHeight) {
+        Vector min = region.getMinimumPoint();
+        Vector max = region.getMaximumPoint();
+        int baseX = data.m_chunkX << 4;
+        int baseZ = data.m_chunkZ << 4;
+        int minX = Math.max(0, min.getBlockX() - baseX);
+        int maxX = Math.min(15, max.getBlockX() - baseX);
+        int minY = Math.max(0, min.getBlockY());
+        int maxY = Math.min(maxHeight - 1, max.getBlockY());
+        int minZ = Math.max(0, min.getBlockZ() - baseZ);
+        int maxZ = Math.min(15, max.getBlockZ() - baseZ);
+
+        Set<Integer> tileEntities = new HashSet<Integer>();
+        for (BlockVector pt : data.m_tileEntities) {
+            tileEntities.add(getIndex(pt.getBlockX() - baseX, pt.getBlockY(), pt.getBlockZ() - baseZ));
+        }
+
+        int size = Math.max(0, (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1));
+        int[] positions = new int[size];
+        int[] blocks = new int[size];
+        int count = 0;
+        ChunkSnapshot snapshot = data.m_snapshot;
+        for (int y = minY; y <= maxY; y++) {
+            boolean isEmpty = snapshot.isSectionEmpty(y >> 4);
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int x = minX; x <= maxX; x++) {
+                    int index = getIndex(x, y, z);
+                    if (tileEntities.contains(index)
+                            || !region.contains(new Vector(baseX + x, y, baseZ + z))) {
+                        continue;
+                    }
+
+                    positions[count] = index;
+                    blocks[count] = isEmpty ? 0
+                            : (snapshot.getBlockTypeId(x, y, z) << 4) | (snapshot.getBlockData(x, y, z) & 0xf);
+                    count++;
+                }
+            }
+        }
+
+        return new ChunkBlocks(data.m_chunkX, data.m_chunkZ, positions, blocks, count);
+    }
+
+    private static int getIndex(int x, int y, int z) {
+        return (y << 8) | (z << 4) | x;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.worldedit;
+
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import org.primesoft.asyncworldedit.utils.WorkerPool;
+import org.primesoft.asyncworldedit.worldedit.BlockBatchPlanner.Batch;
+
+/**
+ * Plans the clipboard paste. The clipboard is partitioned by the destination
+ * chunk and the blocks for each chunk are prepared (empty and air blocks
+ * skipped, positions calculated) on the worker pool. The chunks are planned in
+ * bounded windows so only a part of the clipboard is held as batches and the
+ * placing can start after the first window.
+ *
+ * @author SBPrime
+ */
+public class ClipboardBatchPlanner {
+
+    /**
+     * Minimum number of chunks to use the worker pool
+     */
+    private final static int PARALLEL_CHUNKS = 4;
+
+    /**
+     * Maximum number of clipboard blocks planned in one window
+     */
+    private final static int WINDOW_BLOCKS = 256 * 1024;
+
+    private final CuboidClipboard m_clipboard;
+    private final Vector m_pos;
+    private final boolean m_noAir;
+    private final int m_width;
+    private final int m_height;
+    private final int m_length;
+    private final int m_minCX;
+    private final int m_maxCX;
+    private final int m_minCZ;
+    private final int m_maxCZ;
+
+    /**
+     * Number of chunks in a window
+     */
+    private final int m_windowChunks;
+
+    /**
+     * Next chunk to plan
+     */
+    private int m_cx;
+    private int m_cz;
+
+    /**
+     * Create the paste planner. The clipboard should not be modified until all
+     * the windows are planned.
+     *
+     * @param clipboard the source clipboard
+     * @param pos the paste position of the clipboard minimum point
+     * @param noAir skip the air blocks
+     */
+    public ClipboardBatchPlanner(CuboidClipboard clipboard, Vector pos, boolean noAir) {
+        m_clipboard = clipboard;
+        m_pos = pos;
+        m_noAir = noAir;
+        m_width = clipboard.getWidth();
+        m_height = clipboard.getHeight();
+        m_length = clipboard.getLength();
+
+        int baseX = pos.getBlockX();
+        int baseZ = pos.getBlockZ();
+        m_minCX = baseX >> 4;
+        m_maxCX = (baseX + m_width - 1) >> 4;
+        m_minCZ = baseZ >> 4;
+        m_maxCZ = (baseZ + m_length - 1) >> 4;
+        m_windowChunks = Math.max(1, WINDOW_BLOCKS / (256 * Math.max(1, m_height)));
+
+        m_cx = m_minCX;
+        m_cz = m_minCZ;
+        if (m_width <= 0 || m_height <= 0 || m_length <= 0) {
+            m_cx = m_maxCX + 1;
+        }
+    }
+
+    /**
+     * Plan the next window of chunks
+     *
+     * @return Batches ordered by chunk X, Z or null if all chunks are planned
+     */
+    public List<Batch> next() {
+        if (m_cx > m_maxCX) {
+            return null;
+        }
+
+        final int baseX = m_pos.getBlockX();
+        final int baseZ = m_pos.getBlockZ();
+        List<Callable<Batch>> tasks = new ArrayList<Callable<Batch>>(m_windowChunks);
+        while (m_cx <= m_maxCX && tasks.size() < m_windowChunks) {
+            final int chunkX = m_cx;
+            final int chunkZ = m_cz;
+            final int fromX = Math.max(0, (chunkX << 4) - baseX);
+            final int toX = Math.min(m_width, (chunkX << 4) + 16 - baseX);
+            final int fromZ = Math.max(0, (chunkZ << 4) - baseZ);
+            final int toZ = Math.min(m_length, (chunkZ << 4) + 16 - baseZ);
+
+            tasks.add(new Callable<Batch>() {
+                @Override
+                public Batch call() throws Exception {
+                    return planChunk(m_clipboard, m_pos, m_noAir, chunkX, chunkZ,
+                            fromX, toX, m_height, fromZ, toZ);
+                }
+            });
+
+            m_cz++;
+            if (m_cz > m_maxCZ) {
+                m_cz = m_minCZ;
+                m_cx++;
+            }
+        }
+
+        List<Batch> batches;
+        if (tasks.size() < PARALLEL_CHUNKS) {
+            batches = new ArrayList<Batch>(tasks.size());
+            for (Callable<Batch> task : tasks) {
+                try {
+                    batches.add(task.call());
+                } catch (Exception ex) {
+                    throw new IllegalStateException("Paste planning failed", ex);
+                }
+            }
+        } else {
+            try {
+                batches = WorkerPool.invokeAll(tasks);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Paste planning interrupted", ex);
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Paste planning failed", ex.getCause());
+            }
+        }
+
+        List<Batch> result = new ArrayList<Batch>(batches.size());
+        for (Batch batch : batches) {
+            if (batch.size() > 0) {
+                result.add(batch);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Prepare the blocks for a single destination chunk
+     *
+     * @param clipboard
+     * @param pos
+     * @param noAir
+     * @param chunkX
+     * @param chunkZ
+     * @param fromX first clipboard X (inclusive)
+     * @param toX last clipboard X (exclusive)
+     * @param height
+     * @param fromZ first clipboard Z (inclusive)
+     * @param toZ last clipboard Z (exclusive)
+     * @return
+     */
+    private static Batch planChunk(CuboidClipboard clipboard, Vector pos, boolean noAir,
+            int chunkX, int chunkZ, int fromX, int toX, int height, int fromZ, int toZ) {
+        List<Vector> positions = new ArrayList<Vector>();
+        List<BaseBlock> blocks = new ArrayList<BaseBlock>();
+
+        for (int x = fromX; x < toX; x++) {
+            for (int y = 0; y < height; y++) {
+                for (int z = fromZ; z < toZ; z++) {
+                    final BaseBlock block = clipboard.getBlock(new Vector(x, y, z));
+                    if (block == null) {
+                        continue;
+                    }
+                    if (noAir && block.isAir()) {
+                        continue;
+                    }
+
+                    positions.add(new Vector(x, y, z).add(pos));
+                    blocks.add(block);
+                }
+            }
+        }
+
+        return new Batch(chunkX, chunkZ, positions.toArray(new Vector[0]),
+                blocks.toArray(new BaseBlock[0]));
+    }
+}
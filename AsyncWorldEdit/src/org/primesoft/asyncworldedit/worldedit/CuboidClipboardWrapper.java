@@ -43,14 +43,17 @@ package org.primesoft.asyncworldedit.worldedit;
 import com.sk89q.worldedit.CuboidClipboard;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalEntity;
+import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.regions.Region;
+import java.util.List;
 import org.primesoft.asyncworldedit.AsyncWorldEditMain;
 import org.primesoft.asyncworldedit.api.blockPlacer.IBlockPlacer;
 import org.primesoft.asyncworldedit.playerManager.PlayerEntry;
 import org.primesoft.asyncworldedit.blockPlacer.entries.EntityEntry;
 import org.primesoft.asyncworldedit.utils.Reflection;
+import org.primesoft.asyncworldedit.worldedit.BlockBatchPlanner.Batch;
 
 /**
  * This class is a wrapper to better handle entity paste Note: Do not use any
@@ -120,11 +123,34 @@ public class CuboidClipboardWrapper extends ProxyCuboidClipboard {
         return new LocalEntity[0];
     }
 
+    @Override
+    public void paste(EditSession editSession, Vector newOrigin, boolean noAir)
+            throws MaxChangedBlocksException {
+        place(editSession, newOrigin.add(getOffset()), noAir);
+    }
+
+    @Override
+    public void place(EditSession editSession, Vector pos, boolean noAir)
+            throws MaxChangedBlocksException {
+        synchronized (m_parrent) {
+            ClipboardBatchPlanner planner = new ClipboardBatchPlanner(m_parrent, pos, noAir);
+            List<Batch> batches;
+            while ((batches = planner.next()) != null) {
+                for (Batch batch : batches) {
+                    int size = batch.size();
+                    for (int i = 0; i < size; i++) {
+                        editSession.setBlock(batch.getPosition(i), batch.getBlock(i));
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     public void copy(EditSession editSession) {
         CuboidClipboard tmp = new CuboidClipboard(getSize(), getOrigin(), getOffset());
         tmp.copy(editSession);
-        
+
         cloneData(tmp);
     }
 
@@ -132,27 +158,29 @@ public class CuboidClipboardWrapper extends ProxyCuboidClipboard {
     public void copy(EditSession editSession, Region region) {
         CuboidClipboard tmp = new CuboidClipboard(getSize(), getOrigin(), getOffset());
         tmp.copy(editSession, region);
-        
+
         cloneData(tmp);
     }
 
-    
     /**
-     * Clone data from clipboard to this
-     * @param source 
+     * Clone data from clipboard to this. The deprecated clipboard needs a
+     * BaseBlock per cell (rotate and flip change the blocks in place) so the
+     * array is swapped instead of going through the palette storage.
+     *
+     * @param source
      */
     private void cloneData(CuboidClipboard source) {
-        synchronized (m_parrent){
+        synchronized (m_parrent) {
             BaseBlock[][][] data = Reflection.get(source, BaseBlock[][][].class, "data", "Unable to clone clipboard data");
-            
+
             if (data == null) {
                 return;
             }
-            
+
             setOffset(source.getOffset());
             setOrigin(source.getOrigin());
             setSize(source.getSize());
-            
+
             Reflection.set(CuboidClipboard.class, m_parrent, "data", data, "Unable to clone clipboard data");
         }
     }
@@ -0,0 +1,497 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.worldedit;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.BlockType;
+import com.sk89q.worldedit.blocks.Blocks;
+import com.sk89q.worldedit.extent.AbstractDelegateExtent;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.RegionFunction;
+import com.sk89q.worldedit.function.RegionMaskingFilter;
+import com.sk89q.worldedit.function.block.BlockReplace;
+import com.sk89q.worldedit.function.mask.AbstractExtentMask;
+import com.sk89q.worldedit.function.mask.BlockMask;
+import com.sk89q.worldedit.function.mask.ExistingBlockMask;
+import com.sk89q.worldedit.function.mask.FuzzyBlockMask;
+import com.sk89q.worldedit.function.mask.Mask;
+import com.sk89q.worldedit.function.operation.Operation;
+import com.sk89q.worldedit.function.pattern.BlockPattern;
+import com.sk89q.worldedit.function.pattern.Pattern;
+import com.sk89q.worldedit.function.visitor.RegionVisitor;
+import com.sk89q.worldedit.history.change.BlockChange;
+import com.sk89q.worldedit.history.changeset.ChangeSet;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.world.World;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.primesoft.asyncworldedit.AsyncWorldEditMain;
+import org.primesoft.asyncworldedit.BlocksHubIntegration;
+import org.primesoft.asyncworldedit.api.IPhysicsWatch;
+import org.primesoft.asyncworldedit.api.blockPlacer.IBlockPlacer;
+import org.primesoft.asyncworldedit.blockPlacer.BlockPlacer;
+import org.primesoft.asyncworldedit.blockPlacer.BlockPlacerEntry;
+import org.primesoft.asyncworldedit.blockPlacer.JobJournal;
+import org.primesoft.asyncworldedit.blockPlacer.entries.ActionEntryEx;
+import org.primesoft.asyncworldedit.blockPlacer.entries.JobEntry;
+import org.primesoft.asyncworldedit.playerManager.PlayerEntry;
+import org.primesoft.asyncworldedit.utils.ActionEx;
+import org.primesoft.asyncworldedit.utils.ExceptionHelper;
+import org.primesoft.asyncworldedit.utils.Reflection;
+import org.primesoft.asyncworldedit.utils.SessionCanceled;
+import org.primesoft.asyncworldedit.worldedit.world.AbstractWorldWrapper;
+
+/**
+ * Fill engine for cuboid set and replace operations. Instead of passing each
+ * block through the edit session extents the region is queued by chunk
+ * sections. Each section is split into a few block placer entries that test
+ * the mask, place the blocks and record the history, waiting for the player
+ * queue between the sections.
+ *
+ * @author SBPrime
+ */
+public class CuboidFill {
+
+    /**
+     * The section size
+     */
+    private final static int SECTION_SIZE = 16;
+
+    /**
+     * The fill data shared by all blocks of a fill
+     */
+    private static class FillContext {
+
+        private final PlayerEntry m_player;
+        private final int m_jobId;
+        private final ChangeSet m_changeSet;
+        private final boolean m_notifyAndLight;
+        private final World m_world;
+        private final org.bukkit.World m_bukkitWorld;
+        private final String m_worldName;
+        private final JobJournal m_journal;
+        private final Mask m_mask;
+        private final BaseBlock m_block;
+
+        private FillContext(CancelabeEditSession session, World world, org.bukkit.World bukkitWorld,
+                JobJournal journal, Mask mask, BaseBlock block) {
+            m_player = session.getParent().getPlayer();
+            m_jobId = session.getJobId();
+            m_changeSet = session.getChangeSet();
+            m_notifyAndLight = !session.hasFastMode();
+            m_world = world;
+            m_bukkitWorld = bukkitWorld;
+            m_worldName = bukkitWorld.getName();
+            m_journal = journal;
+            m_mask = mask;
+            m_block = block;
+        }
+    }
+
+    /**
+     * Part of a chunk section. The blocks are placed first and then recorded
+     * (history, journal and log) in a single pass.
+     */
+    private class SectionEntry extends BlockPlacerEntry {
+
+        private final FillContext m_context;
+        private final BlockVector m_from;
+        private final BlockVector m_to;
+
+        private SectionEntry(FillContext context, BlockVector from, BlockVector to) {
+            super(context.m_jobId, false);
+
+            m_context = context;
+            m_from = from;
+            m_to = to;
+        }
+
+        @Override
+        public int getBlockCount() {
+            return (m_to.getBlockX() - m_from.getBlockX() + 1)
+                    * (m_to.getBlockY() - m_from.getBlockY() + 1)
+                    * (m_to.getBlockZ() - m_from.getBlockZ() + 1);
+        }
+
+        @Override
+        public boolean process(IBlockPlacer bp) {
+            //The physics of the entry blocks is frozen while they are placed
+            IPhysicsWatch physics = ((BlockPlacer) bp).getPhysicsWatcher();
+            String worldName = m_context.m_worldName;
+            List<BlockVector> locations = getLocations();
+            for (BlockVector v : locations) {
+                physics.addLocation(worldName, v);
+            }
+
+            try {
+                return place(locations);
+            } catch (WorldEditException ex) {
+                ExceptionHelper.printException(ex, "Error while processing the cuboid fill.");
+                return false;
+            } finally {
+                for (BlockVector v : locations) {
+                    physics.removeLocation(worldName, v);
+                }
+            }
+        }
+
+        private List<BlockVector> getLocations() {
+            List<BlockVector> result = new ArrayList<BlockVector>(getBlockCount());
+            for (int y = m_from.getBlockY(); y <= m_to.getBlockY(); y++) {
+                for (int x = m_from.getBlockX(); x <= m_to.getBlockX(); x++) {
+                    for (int z = m_from.getBlockZ(); z <= m_to.getBlockZ(); z++) {
+                        result.add(new BlockVector(x, y, z));
+                    }
+                }
+            }
+            return result;
+        }
+
+        private boolean place(List<BlockVector> locations) throws WorldEditException {
+            final FillContext c = m_context;
+            final BaseBlock block = c.m_block;
+            List<BlockVector> placed = new ArrayList<BlockVector>(locations.size());
+            List<BaseBlock> oldBlocks = new ArrayList<BaseBlock>(locations.size());
+
+            try {
+                for (BlockVector v : locations) {
+                    if (!m_blocksHub.canPlace(c.m_player, c.m_bukkitWorld, v)) {
+                        continue;
+                    }
+
+                    BaseBlock oldBlock = c.m_world.getBlock(v);
+                    if (c.m_mask != null && !test(c.m_mask, oldBlock)) {
+                        continue;
+                    }
+                    if (oldBlock.equals(block) && !oldBlock.hasNbtData()) {
+                        continue;
+                    }
+
+                    int oldType = oldBlock.getType();
+                    if (BlockType.isContainerBlock(oldType)) {
+                        c.m_world.clearContainerBlockContents(v);
+                    } else if (oldType == BlockID.ICE) {
+                        c.m_world.setBlock(v, new BaseBlock(BlockID.AIR), false);
+                    }
+
+                    if (c.m_world.setBlock(v, block, c.m_notifyAndLight)) {
+                        placed.add(v);
+                        oldBlocks.add(oldBlock);
+                    }
+                }
+            } finally {
+                for (int i = 0; i < placed.size(); i++) {
+                    BlockVector v = placed.get(i);
+                    BaseBlock oldBlock = oldBlocks.get(i);
+                    if (c.m_journal != null) {
+                        c.m_journal.blockPlaced(c.m_player, c.m_jobId, c.m_worldName, v, oldBlock);
+                    }
+                    c.m_changeSet.add(new BlockChange(v, oldBlock, block));
+                    m_blocksHub.logBlock(c.m_player, c.m_bukkitWorld, v, oldBlock, block);
+                }
+
+                if (!placed.isEmpty()) {
+                    m_plugin.getChunkCache().invalidate(c.m_worldName, m_from.getBlockX() >> 4, m_from.getBlockZ() >> 4);
+                }
+            }
+
+            return !placed.isEmpty();
+        }
+    }
+
+    /**
+     * Maximum number of blocks placed by a single entry (one section layer)
+     */
+    private final static int MAX_ENTRY_BLOCKS = SECTION_SIZE * SECTION_SIZE;
+
+    /**
+     * The plugin
+     */
+    private final AsyncWorldEditMain m_plugin;
+
+    /**
+     * The block placer
+     */
+    private final IBlockPlacer m_blockPlacer;
+
+    /**
+     * The blocks hub
+     */
+    private final BlocksHubIntegration m_blocksHub;
+
+    public CuboidFill(AsyncWorldEditMain plugin) {
+        m_plugin = plugin;
+        m_blockPlacer = plugin.getBlockPlacer();
+        m_blocksHub = plugin.getBlocksHub();
+    }
+
+    /**
+     * Perform the operation if it is a single block fill of a cuboid region
+     *
+     * @param op
+     * @param session
+     * @return false if the operation is not supported
+     * @throws WorldEditException
+     */
+    public boolean fill(Operation op, CancelabeEditSession session) throws WorldEditException {
+        if (op == null || op.getClass() != RegionVisitor.class) {
+            return false;
+        }
+
+        Region region = Reflection.get(RegionVisitor.class, Region.class, op, "region", "Unable to get visitor region");
+        RegionFunction function = Reflection.get(RegionVisitor.class, RegionFunction.class, op, "function", "Unable to get visitor function");
+        if (region == null || region.getClass() != CuboidRegion.class || function == null) {
+            return false;
+        }
+
+        Mask mask = null;
+        if (function.getClass() == RegionMaskingFilter.class) {
+            mask = Reflection.get(RegionMaskingFilter.class, Mask.class, function, "mask", "Unable to get filter mask");
+            function = Reflection.get(RegionMaskingFilter.class, RegionFunction.class, function, "function", "Unable to get filter function");
+            if (!isSimpleMask(mask, session) || function == null) {
+                return false;
+            }
+        }
+
+        if (function.getClass() != BlockReplace.class) {
+            return false;
+        }
+
+        Extent extent = Reflection.get(BlockReplace.class, Extent.class, function, "extent", "Unable to get replace extent");
+        Pattern pattern = Reflection.get(BlockReplace.class, Pattern.class, function, "pattern", "Unable to get replace pattern");
+        if (extent != session || pattern == null || pattern.getClass() != BlockPattern.class) {
+            return false;
+        }
+
+        final BaseBlock block = ((BlockPattern) pattern).getBlock();
+        final int type = block.getType();
+        if (block.hasNbtData() || BlockType.shouldPlaceLast(type) || BlockType.shouldPlaceFinal(type)) {
+            return false;
+        }
+
+        if (session.getMask() != null || session.getBlockBag() != null
+                || session.getBlockChangeLimit() >= 0 || !isPlainSession(session)) {
+            return false;
+        }
+
+        final World world = getWorld(session.getWorld());
+        final org.bukkit.World bukkitWorld = session.getParent().getCBWorld();
+        if (world == null || bukkitWorld == null || !world.isValidBlockType(type)) {
+            return false;
+        }
+
+        //Blocks queued by the session need to be placed before the fill
+        session.flushQueue();
+
+        PlayerEntry player = session.getParent().getPlayer();
+        JobEntry job = m_blockPlacer.getJob(player, session.getJobId());
+        JobJournal journal = m_plugin.getJobJournal();
+        FillContext context = new FillContext(session, world, bukkitWorld,
+                journal != null && journal.isEnabled() ? journal : null, mask, block);
+
+        Vector min = region.getMinimumPoint();
+        Vector max = region.getMaximumPoint();
+        int minY = Math.max(0, min.getBlockY());
+        int maxY = Math.min(world.getMaxY(), max.getBlockY());
+        Set<BlockVector2D> chunks = new HashSet<BlockVector2D>();
+
+        for (int cx = min.getBlockX() >> 4; cx <= max.getBlockX() >> 4; cx++) {
+            for (int cz = min.getBlockZ() >> 4; cz <= max.getBlockZ() >> 4; cz++) {
+                chunks.add(new BlockVector2D(cx, cz));
+                for (int sy = minY / SECTION_SIZE; sy <= maxY / SECTION_SIZE; sy++) {
+                    if (session.isCanceled() || (job != null && !m_blockPlacer.waitForQueue(job))) {
+                        throw new IllegalArgumentException(new SessionCanceled());
+                    }
+
+                    Vector from = new Vector(Math.max(min.getBlockX(), cx << 4),
+                            Math.max(minY, sy * SECTION_SIZE),
+                            Math.max(min.getBlockZ(), cz << 4));
+                    Vector to = new Vector(Math.min(max.getBlockX(), (cx << 4) + 15),
+                            Math.min(maxY, sy * SECTION_SIZE + SECTION_SIZE - 1),
+                            Math.min(max.getBlockZ(), (cz << 4) + 15));
+
+                    queueSection(context, from, to);
+                }
+            }
+        }
+
+        if (!context.m_notifyAndLight) {
+            queueFixLighting(context, chunks);
+        }
+
+        return true;
+    }
+
+    /**
+     * Queue the section blocks, the section is split into entries of at most
+     * MAX_ENTRY_BLOCKS blocks
+     *
+     * @param context
+     * @param from
+     * @param to
+     */
+    private void queueSection(FillContext context, Vector from, Vector to) {
+        int layerSize = (to.getBlockX() - from.getBlockX() + 1) * (to.getBlockZ() - from.getBlockZ() + 1);
+        int layers = Math.max(1, MAX_ENTRY_BLOCKS / layerSize);
+
+        if (context.m_journal != null) {
+            for (int y = from.getBlockY(); y <= to.getBlockY(); y++) {
+                for (int x = from.getBlockX(); x <= to.getBlockX(); x++) {
+                    for (int z = from.getBlockZ(); z <= to.getBlockZ(); z++) {
+                        context.m_journal.blockQueued(context.m_player, context.m_jobId,
+                                context.m_worldName, new BlockVector(x, y, z), context.m_block);
+                    }
+                }
+            }
+        }
+
+        for (int y = from.getBlockY(); y <= to.getBlockY(); y += layers) {
+            BlockVector entryFrom = new BlockVector(from.getBlockX(), y, from.getBlockZ());
+            BlockVector entryTo = new BlockVector(to.getBlockX(), Math.min(to.getBlockY(), y + layers - 1), to.getBlockZ());
+            m_blockPlacer.addTasks(context.m_player, new SectionEntry(context, entryFrom, entryTo));
+        }
+    }
+
+    /**
+     * Queue the fast mode lighting fix, same as the WorldEdit fast mode extent
+     *
+     * @param context
+     * @param chunks
+     */
+    private void queueFixLighting(final FillContext context, final Set<BlockVector2D> chunks) {
+        ActionEx<WorldEditException> action = new ActionEx<WorldEditException>() {
+            @Override
+            public void execute() throws WorldEditException {
+                context.m_world.fixAfterFastMode(chunks);
+            }
+        };
+
+        m_blockPlacer.addTasks(context.m_player, new ActionEntryEx<WorldEditException>(context.m_jobId, action, true));
+    }
+
+    /**
+     * Check if the mask can be tested on the old block
+     *
+     * @param mask
+     * @param session
+     * @return
+     */
+    private static boolean isSimpleMask(Mask mask, EditSession session) {
+        if (mask == null) {
+            return false;
+        }
+
+        Class<?> cls = mask.getClass();
+        if (cls != ExistingBlockMask.class && cls != BlockMask.class && cls != FuzzyBlockMask.class) {
+            return false;
+        }
+
+        return ((AbstractExtentMask) mask).getExtent() == session;
+    }
+
+    /**
+     * Test the simple mask
+     *
+     * @param mask
+     * @param block
+     * @return
+     */
+    private static boolean test(Mask mask, BaseBlock block) {
+        if (mask instanceof ExistingBlockMask) {
+            return block.getType() != BlockID.AIR;
+        }
+        if (mask instanceof FuzzyBlockMask) {
+            return Blocks.containsFuzzy(((BlockMask) mask).getBlocks(), block);
+        }
+
+        Set<BaseBlock> blocks = ((BlockMask) mask).getBlocks();
+        return blocks.contains(block) || blocks.contains(new BaseBlock(block.getType(), -1));
+    }
+
+    /**
+     * Check if the session extents are provided by WorldEdit or this plugin.
+     * Extents added by other plugins (for example protection masks) need
+     * to see each block.
+     *
+     * @param session
+     * @return
+     */
+    private static boolean isPlainSession(EditSession session) {
+        Extent extent = Reflection.get(EditSession.class, Extent.class, session, "bypassNone", "Unable to get the session extent");
+        if (extent == null) {
+            return false;
+        }
+
+        while (extent != null) {
+            String name = extent.getClass().getName();
+            if (!name.startsWith("com.sk89q.worldedit.") && !name.startsWith("org.primesoft.asyncworldedit.")) {
+                return false;
+            }
+
+            extent = extent instanceof AbstractDelegateExtent ? ((AbstractDelegateExtent) extent).getExtent() : null;
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the WorldEdit world behind the wrappers
+     *
+     * @param world
+     * @return
+     */
+    private static World getWorld(World world) {
+        while (world instanceof AbstractWorldWrapper) {
+            world = ((AbstractWorldWrapper) world).getWorld();
+        }
+
+        return world;
+    }
+}
@@ -67,6 +67,7 @@ import com.sk89q.worldedit.world.biome.BaseBiome;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import javax.annotation.Nullable;
 import org.bukkit.World;
 import org.primesoft.asyncworldedit.AsyncWorldEditMain;
@@ -458,6 +459,10 @@ public class ThreadSafeEditSession extends EditSessionStub {
 
     @Override
     public List<Countable<Integer>> getBlockDistribution(final Region region) {
+        if (m_bukkitWorld != null) {
+            return new BlockDistribution(m_dispatcher, m_bukkitWorld, m_player).getDistribution(region);
+        }
+
         final ThreadSafeEditSession es = this;
 
         return m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<List<Countable<Integer>>>() {
@@ -470,6 +475,10 @@ public class ThreadSafeEditSession extends EditSessionStub {
 
     @Override
     public List<Countable<BaseBlock>> getBlockDistributionWithData(final Region region) {
+        if (m_bukkitWorld != null) {
+            return new BlockDistribution(m_dispatcher, m_bukkitWorld, m_player).getDistributionWithData(region);
+        }
+
         final ThreadSafeEditSession es = this;
 
         return m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<List<Countable<BaseBlock>>>() {
@@ -480,6 +489,15 @@ public class ThreadSafeEditSession extends EditSessionStub {
         }, m_bukkitWorld, region);
     }
 
+    @Override
+    public int countBlocks(Region region, Set<BaseBlock> searchBlocks) {
+        if (m_bukkitWorld != null) {
+            return new BlockDistribution(m_dispatcher, m_bukkitWorld, m_player).countBlocks(region, searchBlocks);
+        }
+
+        return super.countBlocks(region, searchBlocks);
+    }
+
     @Override
     public List<? extends Entity> getEntities() {
         final ThreadSafeEditSession es = this;
@@ -567,6 +585,16 @@ public class ThreadSafeEditSession extends EditSessionStub {
         UndoProcessor.processUndo(this, this, sess);
     }
 
+    /**
+     * Do not change! Requires special processing
+     *
+     * @param sess
+     */
+    @Override
+    public void redo(final EditSession sess) {
+        UndoProcessor.processRedo(this, this, sess);
+    }
+
     @Override
     public int size() {
         final int result = super.size();
@@ -780,7 +808,7 @@ public class ThreadSafeEditSession extends EditSessionStub {
         return getChangeSet().backwardIterator();
     }
 
-    public void doRedo(EditSession session) {
-        super.redo(session);
+    public Iterator<Change> doRedo() {
+        return getChangeSet().forwardIterator();
     }
 }
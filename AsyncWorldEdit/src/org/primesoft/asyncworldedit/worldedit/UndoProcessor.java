@@ -41,9 +41,7 @@
 package org.primesoft.asyncworldedit.worldedit;
 
 import com.sk89q.worldedit.EditSession;
-import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.WorldEditException;
-import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.function.operation.Operation;
@@ -54,13 +52,13 @@ import com.sk89q.worldedit.history.change.BlockChange;
 import com.sk89q.worldedit.history.change.Change;
 import com.sk89q.worldedit.history.change.EntityCreate;
 import com.sk89q.worldedit.history.change.EntityRemove;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Stack;
 import org.primesoft.asyncworldedit.utils.InjectionException;
 import org.primesoft.asyncworldedit.utils.Reflection;
+import org.primesoft.asyncworldedit.utils.SessionCanceled;
+import org.primesoft.asyncworldedit.worldedit.BlockBatchPlanner.Batch;
 
 /**
  *
@@ -68,17 +66,50 @@ import org.primesoft.asyncworldedit.utils.Reflection;
  */
 public class UndoProcessor implements Operation {
 
+    /**
+     * Undo all changes from the parent session
+     *
+     * @param parent
+     * @param sender
+     * @param session
+     */
     public static void processUndo(ThreadSafeEditSession parent,
             EditSession sender,
             EditSession session) {
+        process(parent.doUndo(), false, sender, session);
+    }
 
-        Iterator<Change> changes = parent.doUndo();
+    /**
+     * Redo all changes from the parent session
+     *
+     * @param parent
+     * @param sender
+     * @param session
+     */
+    public static void processRedo(ThreadSafeEditSession parent,
+            EditSession sender,
+            EditSession session) {
+        process(parent.doRedo(), true, sender, session);
+    }
+
+    /**
+     * Plan and apply the changes. For undo the changes are iterated backward
+     * and the previous block is placed, for redo the changes are iterated
+     * forward and the current block is placed. In both cases the last write
+     * for a position wins.
+     *
+     * @param changes
+     * @param isRedo
+     * @param sender
+     * @param session
+     */
+    private static void process(Iterator<Change> changes, boolean isRedo,
+            EditSession sender,
+            EditSession session) {
         Mask oldMask = session.getMask();
         session.setMask(sender.getMask());
 
-        final HashMap<Double, HashMap<Double, HashMap<Double, List<BaseBlock>>>> placedBlocks
-                = new HashMap<Double, HashMap<Double, HashMap<Double, List<BaseBlock>>>>();
-        final Stack<Vector> posStack = new Stack<Vector>();
+        final BlockBatchPlanner planner = new BlockBatchPlanner();
         final Stack<Change> initialChanges = new Stack<Change>();
         final Stack<Change> finalChanges = new Stack<Change>(); //This handles mostly entities
 
@@ -86,43 +117,28 @@ public class UndoProcessor implements Operation {
             Change change = changes.next();
 
             if (change instanceof EntityCreate) {
-                initialChanges.add(change);
+                if (isRedo) {
+                    finalChanges.add(change);
+                } else {
+                    initialChanges.add(change);
+                }
             } else if (change instanceof EntityRemove) {
-                finalChanges.add(change);
+                if (isRedo) {
+                    initialChanges.add(change);
+                } else {
+                    finalChanges.add(change);
+                }
             } else if (change instanceof BlockChange) {
                 BlockChange bChange = (BlockChange) change;
-                Vector pos = bChange.getPosition();
-                BaseBlock block = bChange.getPrevious();
-                Double x = pos.getX();
-                Double y = pos.getY();
-                Double z = pos.getZ();
-
-                HashMap<Double, HashMap<Double, List<BaseBlock>>> mapX = placedBlocks.get(x);
-                if (mapX == null) {
-                    mapX = new HashMap<Double, HashMap<Double, List<BaseBlock>>>();
-                    placedBlocks.put(x, mapX);
-                }
 
-                HashMap<Double, List<BaseBlock>> mapY = mapX.get(y);
-                if (mapY == null) {
-                    mapY = new HashMap<Double, List<BaseBlock>>();
-                    mapX.put(y, mapY);
-                }
-
-                List<BaseBlock> list = mapY.get(z);
-                if (list == null) {
-                    list = new ArrayList<BaseBlock>();
-                    mapY.put(z, list);
-                }
-
-                posStack.push(pos);
-                list.add(block);
+                planner.add(bChange.getPosition(), isRedo ? bChange.getCurrent() : bChange.getPrevious());
             } else {
                 finalChanges.add(change);
             }
         }
         try {
-            Operations.completeBlindly(new UndoProcessor(session, initialChanges, finalChanges, posStack, placedBlocks));
+            Operations.completeBlindly(new UndoProcessor(sender, session, isRedo,
+                    initialChanges, finalChanges, planner.plan()));
 
         } finally {
             session.flushQueue();
@@ -130,21 +146,22 @@ public class UndoProcessor implements Operation {
         }
     }
 
+    private final EditSession m_sender;
     private final EditSession m_session;
+    private final boolean m_isRedo;
     private final Stack<Change> m_initialChanges;
     private final Stack<Change> m_finalChanges;
-    private final Stack<Vector> m_posStack;
-    private final HashMap<Double, HashMap<Double, HashMap<Double, List<BaseBlock>>>> m_placedBlocks;
+    private final List<Batch> m_batches;
 
-    private UndoProcessor(EditSession session,
+    private UndoProcessor(EditSession sender, EditSession session, boolean isRedo,
             Stack<Change> initialChanges, Stack<Change> finalChanges,
-            Stack<Vector> posStack,
-            HashMap<Double, HashMap<Double, HashMap<Double, List<BaseBlock>>>> placedBlocks) {
+            List<Batch> batches) {
+        m_sender = sender;
         m_session = session;
+        m_isRedo = isRedo;
         m_initialChanges = initialChanges;
         m_finalChanges = finalChanges;
-        m_posStack = posStack;
-        m_placedBlocks = placedBlocks;
+        m_batches = batches;
     }
 
     @Override
@@ -154,44 +171,48 @@ public class UndoProcessor implements Operation {
                 "Unable to get history");
 
         if (bypassHistory == null) {
-            throw new InjectionException("Unable to perform undo operation. Unable to get bypassHistory field");
+            throw new InjectionException("Unable to perform " + (m_isRedo ? "redo" : "undo")
+                    + " operation. Unable to get bypassHistory field");
         }
         uc.setExtent(bypassHistory);
 
         for (Change change : m_initialChanges) {
-            change.undo(uc);
+            apply(change, uc);
         }
-        while (!m_posStack.empty()) {
-            Vector pos = m_posStack.pop();
-            Double x = pos.getX();
-            Double y = pos.getY();
-            Double z = pos.getZ();
-
-            HashMap<Double, HashMap<Double, List<BaseBlock>>> mapX = m_placedBlocks.get(x);
-            if (mapX == null) {
-                continue;
-            }
-            HashMap<Double, List<BaseBlock>> mapY = mapX.get(y);
-            if (mapY == null) {
-                continue;
-            }
-            List<BaseBlock> list = mapY.get(z);
-            if (list == null) {
-                continue;
-            }
+        for (Batch batch : m_batches) {
+            checkCanceled();
 
-            for (BaseBlock block : list) {
-                m_session.smartSetBlock(pos, block);
+            int size = batch.size();
+            for (int i = 0; i < size; i++) {
+                m_session.smartSetBlock(batch.getPosition(i), batch.getBlock(i));
             }
-            list.clear();
         }
+        m_batches.clear();
         for (Change change : m_finalChanges) {
-            change.undo(uc);
+            apply(change, uc);
         }
 
         return null;
     }
 
+    private void apply(Change change, UndoContext uc) throws WorldEditException {
+        if (m_isRedo) {
+            change.redo(uc);
+        } else {
+            change.undo(uc);
+        }
+    }
+
+    /**
+     * Stop placing the batches when the job was canceled
+     */
+    private void checkCanceled() {
+        if (m_sender instanceof CancelabeEditSession
+                && ((CancelabeEditSession) m_sender).isCanceled()) {
+            throw new IllegalArgumentException(new SessionCanceled());
+        }
+    }
+
     @Override
     public void cancel() {
     }
@@ -0,0 +1,689 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.worldedit.history;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.bukkit.BukkitWorld;
+import com.sk89q.worldedit.bukkit.WorldEditPlugin;
+import com.sk89q.worldedit.history.change.BlockChange;
+import com.sk89q.worldedit.history.change.Change;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+import org.primesoft.asyncworldedit.AsyncWorldEditMain;
+import org.primesoft.asyncworldedit.configuration.ConfigProvider;
+import org.primesoft.asyncworldedit.playerManager.PlayerEntry;
+import org.primesoft.asyncworldedit.strings.MessageType;
+import org.primesoft.asyncworldedit.utils.ExceptionHelper;
+import org.primesoft.asyncworldedit.utils.FuncParamEx;
+import org.primesoft.asyncworldedit.utils.Reflection;
+import org.primesoft.asyncworldedit.worldedit.BlockBatchPlanner;
+import org.primesoft.asyncworldedit.worldedit.CancelabeEditSession;
+import org.primesoft.asyncworldedit.worldedit.ThreadSafeEditSession;
+
+/**
+ * On disk undo history. The WorldEdit history of a player is stored when
+ * WorldEdit drops the session of a player that left (or the server stops) and
+ * is used by //undo when the WorldEdit session has nothing left to undo. The
+ * in memory history is never modified. Entries are read only when they are
+ * undone.
+ *
+ * @author SBPrime
+ */
+public class UndoHistoryStore {
+
+    private static final String FOLDER = "history";
+    private static final String EXTENSION = ".awh";
+    private static final int MAGIC = 0x41574548;
+    private static final int VERSION = 2;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Interval of the dropped sessions check (ticks)
+     */
+    private static final int CHECK_INTERVAL = 20 * 60;
+
+    /**
+     * End of the entry records
+     */
+    private static final int RECORD_END = 0;
+
+    /**
+     * Block record
+     */
+    private static final int RECORD_BLOCK = 1;
+
+    /**
+     * The block record contains the NBT data
+     */
+    private static final int RECORD_NBT = 2;
+
+    /**
+     * The plugin
+     */
+    private final AsyncWorldEditMain m_plugin;
+
+    /**
+     * The WorldEdit plugin
+     */
+    private final WorldEditPlugin m_worldEdit;
+
+    /**
+     * The MTA mutex (file access)
+     */
+    private final Object m_mutex = new Object();
+
+    /**
+     * Sessions of the players that left, by player UUID
+     */
+    private final HashMap<UUID, LocalSession> m_leftSessions = new HashMap<UUID, LocalSession>();
+
+    /**
+     * The dropped sessions check task
+     */
+    private final BukkitTask m_task;
+
+    /**
+     * Last used history file id
+     */
+    private long m_lastId;
+
+    /**
+     * The files selected by a running undo
+     */
+    private final HashSet<File> m_undoing = new HashSet<File>();
+
+    public UndoHistoryStore(AsyncWorldEditMain plugin, WorldEditPlugin worldEdit) {
+        m_plugin = plugin;
+        m_worldEdit = worldEdit;
+        m_task = plugin.getServer().getScheduler().runTaskTimer(plugin, new Runnable() {
+            @Override
+            public void run() {
+                checkSessions();
+            }
+        }, CHECK_INTERVAL, CHECK_INTERVAL);
+    }
+
+    /**
+     * Player left the server, the history is stored when WorldEdit drops the
+     * player session
+     *
+     * @param player
+     */
+    public void playerQuit(Player player) {
+        if (!ConfigProvider.isUndoHistoryEnabled() || player == null || m_worldEdit == null) {
+            return;
+        }
+
+        LocalSession session = m_worldEdit.getWorldEdit().getSessionManager().findByName(player.getName());
+        if (session != null) {
+            m_leftSessions.put(player.getUniqueId(), session);
+        }
+    }
+
+    /**
+     * Store the history of all the sessions, used when the server stops. The
+     * files are written by a non daemon thread so the server main thread does
+     * not wait for them.
+     */
+    public void storeAll() {
+        m_task.cancel();
+        if (!ConfigProvider.isUndoHistoryEnabled() || m_worldEdit == null) {
+            return;
+        }
+
+        final HashMap<UUID, List<EditSession>> histories = new HashMap<UUID, List<EditSession>>();
+        for (Map.Entry<UUID, LocalSession> entry : m_leftSessions.entrySet()) {
+            addHistory(histories, entry.getKey(), entry.getValue());
+        }
+        m_leftSessions.clear();
+        for (Player player : m_plugin.getServer().getOnlinePlayers()) {
+            addHistory(histories, player.getUniqueId(),
+                    m_worldEdit.getWorldEdit().getSessionManager().findByName(player.getName()));
+        }
+
+        if (histories.isEmpty()) {
+            return;
+        }
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<UUID, List<EditSession>> entry : histories.entrySet()) {
+                    store(entry.getKey(), entry.getValue());
+                }
+            }
+        }, "AWE undo history");
+        thread.setDaemon(false);
+        thread.start();
+    }
+
+    /**
+     * Store the history of the sessions dropped by WorldEdit
+     */
+    private void checkSessions() {
+        if (m_leftSessions.isEmpty()) {
+            return;
+        }
+
+        final HashMap<UUID, List<EditSession>> histories = new HashMap<UUID, List<EditSession>>();
+        for (Iterator<Map.Entry<UUID, LocalSession>> it = m_leftSessions.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<UUID, LocalSession> entry = it.next();
+            UUID uuid = entry.getKey();
+            LocalSession session = entry.getValue();
+            Player player = m_plugin.getServer().getPlayer(uuid);
+            if (player != null) {
+                //Player is back, WorldEdit keeps the session
+                it.remove();
+                continue;
+            }
+
+            String name = m_plugin.getServer().getOfflinePlayer(uuid).getName();
+            if (name != null && m_worldEdit.getWorldEdit().getSessionManager().findByName(name) == session) {
+                continue;
+            }
+
+            it.remove();
+            addHistory(histories, uuid, session);
+        }
+
+        if (histories.isEmpty()) {
+            return;
+        }
+
+        m_plugin.getServer().getScheduler().runTaskAsynchronously(m_plugin, new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<UUID, List<EditSession>> entry : histories.entrySet()) {
+                    store(entry.getKey(), entry.getValue());
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the undoable edit sessions from the session history, the change sets
+     * are read later
+     *
+     * @param histories
+     * @param uuid
+     * @param session
+     */
+    private static void addHistory(HashMap<UUID, List<EditSession>> histories, UUID uuid, LocalSession session) {
+        if (session == null) {
+            return;
+        }
+
+        LinkedList<?> history = Reflection.get(LocalSession.class, LinkedList.class, session,
+                "history", "Unable to get the undo history");
+        Integer pointer = Reflection.get(LocalSession.class, Integer.class, session,
+                "historyPointer", "Unable to get the undo history pointer");
+        if (history == null || pointer == null || pointer <= 0) {
+            return;
+        }
+
+        List<EditSession> result = new ArrayList<EditSession>();
+        for (int i = 0; i < pointer && i < history.size(); i++) {
+            result.add((EditSession) history.get(i));
+        }
+        histories.put(uuid, result);
+    }
+
+    /**
+     * Write the history of a dropped session, oldest edit first
+     *
+     * @param uuid
+     * @param history
+     */
+    private void store(UUID uuid, List<EditSession> history) {
+        synchronized (m_mutex) {
+            File folder = getFolder(uuid);
+            if (!folder.exists() && !folder.mkdirs()) {
+                AsyncWorldEditMain.log("Unable to create the undo history folder " + folder);
+                return;
+            }
+
+            for (EditSession session : history) {
+                if (session == null || session.getWorld() == null) {
+                    continue;
+                }
+
+                long id = Math.max(m_lastId + 1, System.currentTimeMillis());
+                File file = new File(folder, String.format("%016x%s", id, EXTENSION));
+                while (file.exists()) {
+                    id++;
+                    file = new File(folder, String.format("%016x%s", id, EXTENSION));
+                }
+                m_lastId = id;
+
+                write(file, session);
+            }
+        }
+
+        //Apply the retention limits
+        getFiles(uuid);
+    }
+
+    /**
+     * Undo the stored history if the WorldEdit session has nothing to undo
+     *
+     * @param wePlayer
+     * @param arguments the undo command arguments
+     * @return true if the undo was handled
+     */
+    public boolean undo(com.sk89q.worldedit.entity.Player wePlayer, String[] arguments) {
+        if (!ConfigProvider.isUndoHistoryEnabled() || wePlayer == null || m_worldEdit == null
+                || !wePlayer.hasPermission("worldedit.history.undo")) {
+            return false;
+        }
+
+        //Undo for an other player is handled by WorldEdit
+        if (arguments.length > 2) {
+            return false;
+        }
+
+        int times = 1;
+        if (arguments.length == 2) {
+            try {
+                times = Math.max(1, Integer.parseInt(arguments[1]));
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+        }
+
+        final Player player = m_plugin.getServer().getPlayer(wePlayer.getUniqueId());
+        if (player == null) {
+            return false;
+        }
+
+        LocalSession session = m_worldEdit.getSession(player);
+        Integer pointer = Reflection.get(LocalSession.class, Integer.class, session,
+                "historyPointer", "Unable to get the undo history pointer");
+        if (pointer == null || pointer > 0) {
+            return false;
+        }
+
+        File[] files = getFiles(player.getUniqueId());
+        if (files.length == 0) {
+            return false;
+        }
+
+        final List<File> toUndo = new ArrayList<File>();
+        synchronized (m_mutex) {
+            for (int i = 0; i < files.length && toUndo.size() < times; i++) {
+                if (m_undoing.add(files[i])) {
+                    toUndo.add(files[i]);
+                }
+            }
+        }
+        if (toUndo.isEmpty()) {
+            return false;
+        }
+
+        final PlayerEntry playerEntry = m_plugin.getPlayerManager().getPlayer(player);
+        final com.sk89q.worldedit.entity.Player actor = wePlayer;
+        m_plugin.getServer().getScheduler().runTaskAsynchronously(m_plugin, new Runnable() {
+            @Override
+            public void run() {
+                //Edits in different worlds do not overlap, the edits of a
+                //world are undone by a single job in the newest first order
+                LinkedHashMap<String, List<File>> worlds = new LinkedHashMap<String, List<File>>();
+                for (File file : toUndo) {
+                    String world = readWorld(file);
+                    if (world == null) {
+                        release(Collections.singletonList(file));
+                        continue;
+                    }
+
+                    List<File> worldFiles = worlds.get(world);
+                    if (worldFiles == null) {
+                        worldFiles = new ArrayList<File>();
+                        worlds.put(world, worldFiles);
+                    }
+                    worldFiles.add(file);
+                }
+
+                for (Map.Entry<String, List<File>> entry : worlds.entrySet()) {
+                    undo(playerEntry, actor, entry.getKey(), entry.getValue());
+                }
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Queue the undo of the stored entries of a world. The entries are read
+     * one at a time, newest first, and each file is removed once its blocks
+     * are queued. A canceled or failed undo keeps the remaining files.
+     *
+     * @param player
+     * @param actor
+     * @param worldName
+     * @param files
+     */
+    private void undo(final PlayerEntry player, com.sk89q.worldedit.entity.Player actor,
+            String worldName, final List<File> files) {
+        World world = m_plugin.getServer().getWorld(worldName);
+        EditSession es = world != null ? m_worldEdit.getWorldEdit().getEditSessionFactory()
+                .getEditSession(new BukkitWorld(world), -1, actor) : null;
+        if (!(es instanceof ThreadSafeEditSession)) {
+            release(files);
+            return;
+        }
+
+        m_plugin.getBlockPlacer().performAsAsyncJob((ThreadSafeEditSession) es, player, "undo",
+                new FuncParamEx<Integer, CancelabeEditSession, MaxChangedBlocksException>() {
+                    @Override
+                    public Integer execute(CancelabeEditSession session) throws MaxChangedBlocksException {
+                        int result = 0;
+                        try {
+                            for (File file : files) {
+                                BlockBatchPlanner planner = new BlockBatchPlanner();
+                                if (!read(file, planner)) {
+                                    //Older entries can not be undone before this one
+                                    break;
+                                }
+
+                                player.say(MessageType.UNDO_HISTORY_RESTORED.format(planner.getCount()));
+                                for (BlockBatchPlanner.Batch batch : planner.plan()) {
+                                    for (int i = 0; i < batch.size(); i++) {
+                                        session.smartSetBlock(batch.getPosition(i), batch.getBlock(i));
+                                    }
+                                }
+                                result += planner.getCount();
+
+                                synchronized (m_mutex) {
+                                    file.delete();
+                                }
+                            }
+                        } finally {
+                            release(files);
+                        }
+                        return result;
+                    }
+                });
+    }
+
+    /**
+     * Release the files selected by an undo
+     *
+     * @param files
+     */
+    private void release(List<File> files) {
+        synchronized (m_mutex) {
+            m_undoing.removeAll(files);
+        }
+    }
+
+    /**
+     * Get the player history folder
+     *
+     * @param uuid
+     * @return
+     */
+    private static File getFolder(UUID uuid) {
+        return new File(new File(ConfigProvider.getPluginFolder(), FOLDER), uuid.toString());
+    }
+
+    /**
+     * Get the stored entries, newest first. Expired entries are removed.
+     *
+     * @param uuid
+     * @return
+     */
+    private File[] getFiles(UUID uuid) {
+        synchronized (m_mutex) {
+            File[] files = getFolder(uuid).listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File f) {
+                    return f.isFile() && f.getName().endsWith(EXTENSION);
+                }
+            });
+            if (files == null) {
+                return new File[0];
+            }
+
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File o1, File o2) {
+                    return o2.getName().compareTo(o1.getName());
+                }
+            });
+
+            int maxAge = ConfigProvider.getUndoHistoryMaxAge();
+            int maxEntries = ConfigProvider.getUndoHistoryMaxEntries();
+            long now = System.currentTimeMillis();
+            List<File> result = new ArrayList<File>();
+            for (File f : files) {
+                boolean expired = maxAge > 0 && now - f.lastModified() > maxAge * DAY;
+                boolean tooMany = maxEntries > 0 && result.size() >= maxEntries;
+                if (expired || tooMany) {
+                    f.delete();
+                } else {
+                    result.add(f);
+                }
+            }
+
+            return result.toArray(new File[0]);
+        }
+    }
+
+    /**
+     * Write the edit session block changes. The records are stored in the
+     * undo order (newest change first) so they can be streamed when undone.
+     *
+     * @param file
+     * @param session
+     */
+    private static void write(File file, EditSession session) {
+        DataOutputStream stream = null;
+        int count = 0;
+        try {
+            stream = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(file))));
+            NBTOutputStream nbtStream = new NBTOutputStream(stream);
+            stream.writeInt(MAGIC);
+            stream.writeByte(VERSION);
+            stream.writeUTF(session.getWorld().getName());
+            for (Iterator<Change> it = session.getChangeSet().backwardIterator(); it.hasNext();) {
+                Change change = it.next();
+                if (!(change instanceof BlockChange)) {
+                    continue;
+                }
+
+                BlockChange bc = (BlockChange) change;
+                Vector pos = bc.getPosition();
+                BaseBlock prev = bc.getPrevious();
+                CompoundTag nbt = prev.hasNbtData() ? prev.getNbtData() : null;
+                stream.writeByte(nbt != null ? RECORD_BLOCK | RECORD_NBT : RECORD_BLOCK);
+                stream.writeInt(pos.getBlockX());
+                stream.writeShort(pos.getBlockY());
+                stream.writeInt(pos.getBlockZ());
+                stream.writeShort(prev.getType());
+                stream.writeByte(prev.getData());
+                if (nbt != null) {
+                    nbtStream.writeNamedTag("", nbt);
+                }
+                count++;
+            }
+            stream.writeByte(RECORD_END);
+        } catch (IOException ex) {
+            ExceptionHelper.printException(ex, "Unable to store the undo history " + file);
+            count = 0;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+
+        if (count == 0) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Open the history entry and read the header
+     *
+     * @param file
+     * @return null if the file is not supported (the file is removed)
+     * @throws IOException
+     */
+    private static DataInputStream open(File file) throws IOException {
+        DataInputStream stream = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))));
+        if (stream.readInt() != MAGIC || stream.readByte() != VERSION) {
+            stream.close();
+            //The entry can never be undone, do not let it block the older ones
+            AsyncWorldEditMain.log("Unsupported undo history file " + file + ", removed");
+            file.delete();
+            return null;
+        }
+
+        return stream;
+    }
+
+    /**
+     * Read the world of the history entry
+     *
+     * @param file
+     * @return
+     */
+    private String readWorld(File file) {
+        synchronized (m_mutex) {
+            DataInputStream stream = null;
+            try {
+                stream = open(file);
+                return stream != null ? stream.readUTF() : null;
+            } catch (IOException ex) {
+                ExceptionHelper.printException(ex, "Unable to read the undo history " + file);
+                return null;
+            } finally {
+                if (stream != null) {
+                    try {
+                        stream.close();
+                    } catch (IOException ex) {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stream the history entry records to the planner
+     *
+     * @param file
+     * @param planner
+     * @return false if the entry could not be read
+     */
+    private boolean read(File file, BlockBatchPlanner planner) {
+        synchronized (m_mutex) {
+            DataInputStream stream = null;
+            try {
+                stream = open(file);
+                if (stream == null) {
+                    return false;
+                }
+
+                NBTInputStream nbtStream = new NBTInputStream(stream);
+                stream.readUTF();
+                int flags;
+                while ((flags = stream.readByte()) != RECORD_END) {
+                    Vector pos = new Vector(stream.readInt(), stream.readShort(), stream.readInt());
+                    int type = stream.readShort();
+                    int data = stream.readByte() & 0xff;
+                    if ((flags & RECORD_NBT) != 0) {
+                        Tag nbt = nbtStream.readNamedTag().getTag();
+                        planner.add(pos, new BaseBlock(type, data, (CompoundTag) nbt));
+                    } else {
+                        planner.add(pos, new BaseBlock(type, data));
+                    }
+                }
+
+                return true;
+            } catch (IOException ex) {
+                ExceptionHelper.printException(ex, "Unable to read the undo history " + file);
+                return false;
+            } finally {
+                if (stream != null) {
+                    try {
+                        stream.close();
+                    } catch (IOException ex) {
+                    }
+                }
+            }
+        }
+    }
+}
@@ -52,8 +52,10 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.primesoft.asyncworldedit.AsyncWorldEditMain;
 import org.primesoft.asyncworldedit.utils.Reflection;
 import org.primesoft.asyncworldedit.worldedit.entity.PlayerWrapper;
+import org.primesoft.asyncworldedit.worldedit.history.UndoHistoryStore;
 
 /**
  *
@@ -104,18 +106,30 @@ public class DispatcherWrapper implements Dispatcher {
     public boolean call(String arguments, CommandLocals locals, String[] parentCommands) throws CommandException {        
         Map<Object, Object> valuesMap = Reflection.get(locals, Map.class, "locals", "Unable to get locals, player not injected.");
         Map.Entry<Object, Object>[] values = valuesMap.entrySet().toArray(new Map.Entry[0]);
+        Player player = null;
         if (values != null) {
             for (Map.Entry<Object, Object> entry : values) {
                 Object key = entry.getKey();
                 Object v = entry.getValue();
                 
                 if (v instanceof Player){
+                    player = (Player)v;
                     valuesMap.remove(key);
-                    valuesMap.put(key, new PlayerWrapper((Player)v));
+                    valuesMap.put(key, new PlayerWrapper(player));
                 }
             }
         }
         
+        if (player != null && arguments != null) {
+            String[] args = arguments.trim().split(" +");
+            UndoHistoryStore undoHistory = AsyncWorldEditMain.getInstance().getUndoHistory();
+            if (args.length > 0 && undoHistory != null
+                    && (args[0].equalsIgnoreCase("/undo") || args[0].equalsIgnoreCase("undo"))
+                    && undoHistory.undo(player, args)) {
+                return true;
+            }
+        }
+        
         return m_parent.call(arguments, locals, parentCommands);
     }
 
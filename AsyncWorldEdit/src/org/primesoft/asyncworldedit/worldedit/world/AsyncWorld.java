@@ -60,14 +60,19 @@ import com.sk89q.worldedit.util.TreeGenerator;
 import com.sk89q.worldedit.world.World;
 import com.sk89q.worldedit.world.biome.BaseBiome;
 import com.sk89q.worldedit.world.registry.WorldData;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.scheduler.BukkitScheduler;
 import org.primesoft.asyncworldedit.AsyncWorldEditMain;
 import org.primesoft.asyncworldedit.BlocksHubIntegration;
+import org.primesoft.asyncworldedit.ChunkSnapshotCache;
 import org.primesoft.asyncworldedit.api.blockPlacer.IBlockPlacer;
 import org.primesoft.asyncworldedit.api.taskdispatcher.ITaskDispatcher;
 import org.primesoft.asyncworldedit.configuration.ConfigProvider;
 import org.primesoft.asyncworldedit.playerManager.PlayerEntry;
+import org.primesoft.asyncworldedit.blockPlacer.JobJournal;
 import org.primesoft.asyncworldedit.blockPlacer.entries.JobEntry;
 import org.primesoft.asyncworldedit.blockPlacer.entries.RegenerateEntry;
 import org.primesoft.asyncworldedit.blockPlacer.entries.WorldExtentActionEntry;
@@ -89,6 +94,73 @@ import org.primesoft.asyncworldedit.worldedit.entity.EntityLazyWrapper;
  */
 public class AsyncWorld extends AbstractWorldWrapper {
 
+    /**
+     * Blocks with tile entities, they can not be read from the chunk snapshot
+     */
+    private final static BitSet s_tileEntities = new BitSet(256);
+
+    static {
+        for (int id : new int[]{23, 25, 52, 54, 61, 62, 63, 68, 84, 116, 117,
+            119, 130, 137, 138, 140, 144, 146, 149, 150, 151, 154, 158, 176,
+            177, 178, 209, 210, 211}) {
+            s_tileEntities.set(id);
+        }
+    }
+
+    /**
+     * Number of block ids with cached metadata
+     */
+    private final static int MAX_BLOCK_ID = 4096;
+
+    /**
+     * The world metadata generation, bumped on world lifecycle events
+     */
+    private final static AtomicInteger s_metadataGeneration = new AtomicInteger();
+
+    /**
+     * Invalidate the cached world metadata of all async worlds
+     */
+    public static void invalidateMetadata() {
+        s_metadataGeneration.incrementAndGet();
+    }
+
+    /**
+     * The cached world metadata
+     */
+    private static class Metadata {
+
+        private final int m_generation;
+
+        private final String m_name;
+
+        private final int m_maxY;
+
+        private final WorldData m_worldData;
+
+        private final Vector m_minimumPoint;
+
+        private final Vector m_maximumPoint;
+
+        /**
+         * Is valid block type: 0 - unknown, 1 - no, 2 - yes
+         */
+        private final byte[] m_validBlockTypes = new byte[MAX_BLOCK_ID];
+
+        /**
+         * Uses block data: 0 - unknown, 1 - no, 2 - yes
+         */
+        private final byte[] m_usesBlockData = new byte[MAX_BLOCK_ID];
+
+        private Metadata(int generation, World world) {
+            m_generation = generation;
+            m_name = world.getName();
+            m_maxY = world.getMaxY();
+            m_worldData = world.getWorldData();
+            m_minimumPoint = world.getMinimumPoint();
+            m_maximumPoint = world.getMaximumPoint();
+        }
+    }
+
     /**
      * Wrap the world (if needed)
      *
@@ -143,6 +215,16 @@ public class AsyncWorld extends AbstractWorldWrapper {
      */
     private final BlocksHubIntegration m_blocksHub;
 
+    /**
+     * The chunk snapshot cache
+     */
+    private final ChunkSnapshotCache m_chunkCache;
+
+    /**
+     * The cached world metadata
+     */
+    private volatile Metadata m_metadata;
+
     public AsyncWorld(World world, PlayerEntry player) {
         super(world);
 
@@ -152,6 +234,7 @@ public class AsyncWorld extends AbstractWorldWrapper {
         m_blockPlacer = m_plugin.getBlockPlacer();
         m_dispatcher = m_plugin.getTaskDispatcher();
         m_blocksHub = m_plugin.getBlocksHub();
+        m_chunkCache = m_plugin.getChunkCache();
 
         if (world instanceof BukkitWorld) {
             m_bukkitWorld = ((BukkitWorld) world).getWorld();
@@ -162,42 +245,52 @@ public class AsyncWorld extends AbstractWorldWrapper {
 
     @Override
     public String getName() {
-        return m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<String>() {
-            @Override
-            public String execute() {
-                return m_parent.getName();
-            }
-        });
+        return getMetadata().m_name;
     }
 
     @Override
     public int getMaxY() {
-        return m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<Integer>() {
-            @Override
-            public Integer execute() {
-                return m_parent.getMaxY();
-            }
-        });
+        return getMetadata().m_maxY;
     }
 
     @Override
     public boolean isValidBlockType(final int i) {
-        return m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<Boolean>() {
+        byte[] cache = getMetadata().m_validBlockTypes;
+        if (i >= 0 && i < MAX_BLOCK_ID && cache[i] != 0) {
+            return cache[i] == 2;
+        }
+
+        boolean result = m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<Boolean>() {
             @Override
             public Boolean execute() {
                 return m_parent.isValidBlockType(i);
             }
         });
+        if (i >= 0 && i < MAX_BLOCK_ID) {
+            cache[i] = (byte) (result ? 2 : 1);
+        }
+
+        return result;
     }
 
     @Override
     public boolean usesBlockData(final int i) {
-        return m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<Boolean>() {
+        byte[] cache = getMetadata().m_usesBlockData;
+        if (i >= 0 && i < MAX_BLOCK_ID && cache[i] != 0) {
+            return cache[i] == 2;
+        }
+
+        boolean result = m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<Boolean>() {
             @Override
             public Boolean execute() {
                 return m_parent.usesBlockData(i);
             }
         });
+        if (i >= 0 && i < MAX_BLOCK_ID) {
+            cache[i] = (byte) (result ? 2 : 1);
+        }
+
+        return result;
     }
 
     @Override
@@ -212,6 +305,11 @@ public class AsyncWorld extends AbstractWorldWrapper {
 
     @Override
     public int getBlockType(final Vector vector) {
+        ChunkSnapshot snapshot = getSnapshot(vector);
+        if (snapshot != null) {
+            return snapshot.getBlockTypeId(vector.getBlockX() & 15, vector.getBlockY(), vector.getBlockZ() & 15);
+        }
+
         return m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<Integer>() {
             @Override
             public Integer execute() {
@@ -222,6 +320,11 @@ public class AsyncWorld extends AbstractWorldWrapper {
 
     @Override
     public int getBlockData(final Vector vector) {
+        ChunkSnapshot snapshot = getSnapshot(vector);
+        if (snapshot != null) {
+            return snapshot.getBlockData(vector.getBlockX() & 15, vector.getBlockY(), vector.getBlockZ() & 15);
+        }
+
         return m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<Integer>() {
 
             @Override
@@ -264,28 +367,40 @@ public class AsyncWorld extends AbstractWorldWrapper {
             return false;
         }
 
+        final int jobId = paramBlock.getJobId();
+        final boolean isAsync = paramBlock.isAsync() || paramVector.isAsync() || !m_dispatcher.isMainTask();
+        final JobJournal journal = isAsync ? m_plugin.getJobJournal() : null;
+        final String worldName = journal != null && journal.isEnabled() && m_bukkitWorld != null
+                ? m_bukkitWorld.getName() : null;
         FuncEx<Boolean, WorldEditException> func = new FuncEx<Boolean, WorldEditException>() {
 
             @Override
             public Boolean execute() throws WorldEditException {
                 final BaseBlock oldBlock = m_parent.getBlock(v);
 
+                if (worldName != null) {
+                    journal.blockPlaced(player, jobId, worldName, v, oldBlock);
+                }
+
                 if (oldBlock.equals(newBlock) && !oldBlock.hasNbtData() && !newBlock.hasNbtData()) {
                     return false;
                 }
 
                 final boolean result = m_parent.setBlock(v, newBlock, bln);
                 if (result) {
-                    logBlock(v, player, oldBlock, newBlock);
+                    blockChanged(v, player, oldBlock, newBlock);
                 }
 
                 return result;
             }
         };
 
-        if (paramBlock.isAsync() || paramVector.isAsync() || !m_dispatcher.isMainTask()) {
+        if (isAsync) {
+            if (worldName != null) {
+                journal.blockQueued(player, jobId, worldName, v, newBlock);
+            }
             return m_blockPlacer.addTasks(player,
-                    new WorldExtentFuncEntryEx(this, paramBlock.getJobId(), v, func));
+                    new WorldExtentFuncEntryEx(this, jobId, v, func));
         }
 
         return func.execute();
@@ -311,7 +426,7 @@ public class AsyncWorld extends AbstractWorldWrapper {
 
                 final boolean result = m_parent.setBlockType(v, i);
                 if (result) {
-                    logBlock(v, player, oldBlock, new BaseBlock(i, oldBlock.getData()));
+                    blockChanged(v, player, oldBlock, new BaseBlock(i, oldBlock.getData()));
                 }
 
                 return result;
@@ -344,7 +459,7 @@ public class AsyncWorld extends AbstractWorldWrapper {
                     return false;
                 }
                 m_parent.setBlockData(v, i);
-                logBlock(v, player, oldBlock, new BaseBlock(oldBlock.getType(), i));
+                blockChanged(v, player, oldBlock, new BaseBlock(oldBlock.getType(), i));
                 return true;
             }
         };
@@ -379,7 +494,7 @@ public class AsyncWorld extends AbstractWorldWrapper {
 
                 final boolean result = m_parent.setTypeIdAndData(v, i, i1);
                 if (result) {
-                    logBlock(v, player, oldBlock, new BaseBlock(i, i1));
+                    blockChanged(v, player, oldBlock, new BaseBlock(i, i1));
                 }
 
                 return result;
@@ -441,12 +556,7 @@ public class AsyncWorld extends AbstractWorldWrapper {
 
     @Override
     public WorldData getWorldData() {
-        return m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<WorldData>() {
-            @Override
-            public WorldData execute() {
-                return m_parent.getWorldData();
-            }
-        });
+        return getMetadata().m_worldData;
     }
 
     @Override
@@ -670,7 +780,7 @@ public class AsyncWorld extends AbstractWorldWrapper {
                 }
             }
 
-            m_blockPlacer.addTasks(m_player, new RegenerateEntry(jobId, world, chunk));
+            m_blockPlacer.addTasks(m_player, new RegenerateEntry(jobId, world, chunk, m_chunkCache));
 
             // Then restore
             for (int x = 0; x < 16; ++x) {
@@ -705,7 +815,9 @@ public class AsyncWorld extends AbstractWorldWrapper {
         FuncEx<Boolean, MaxChangedBlocksException> func = new FuncEx<Boolean, MaxChangedBlocksException>() {
             @Override
             public Boolean execute() throws MaxChangedBlocksException {
-                return m_parent.generateTree(tt, es, v);
+                boolean result = m_parent.generateTree(tt, es, v);
+                treeChanged(v);
+                return result;
             }
         };
 
@@ -730,7 +842,9 @@ public class AsyncWorld extends AbstractWorldWrapper {
         FuncEx<Boolean, MaxChangedBlocksException> func = new FuncEx<Boolean, MaxChangedBlocksException>() {
             @Override
             public Boolean execute() throws MaxChangedBlocksException {
-                return m_parent.generateTree(es, v);
+                boolean result = m_parent.generateTree(es, v);
+                treeChanged(v);
+                return result;
             }
         };
 
@@ -755,7 +869,9 @@ public class AsyncWorld extends AbstractWorldWrapper {
         FuncEx<Boolean, MaxChangedBlocksException> func = new FuncEx<Boolean, MaxChangedBlocksException>() {
             @Override
             public Boolean execute() throws MaxChangedBlocksException {
-                return m_parent.generateBigTree(es, v);
+                boolean result = m_parent.generateBigTree(es, v);
+                treeChanged(v);
+                return result;
             }
         };
 
@@ -780,7 +896,9 @@ public class AsyncWorld extends AbstractWorldWrapper {
         FuncEx<Boolean, MaxChangedBlocksException> func = new FuncEx<Boolean, MaxChangedBlocksException>() {
             @Override
             public Boolean execute() throws MaxChangedBlocksException {
-                return m_parent.generateBirchTree(es, v);
+                boolean result = m_parent.generateBirchTree(es, v);
+                treeChanged(v);
+                return result;
             }
         };
 
@@ -805,7 +923,9 @@ public class AsyncWorld extends AbstractWorldWrapper {
         FuncEx<Boolean, MaxChangedBlocksException> func = new FuncEx<Boolean, MaxChangedBlocksException>() {
             @Override
             public Boolean execute() throws MaxChangedBlocksException {
-                return m_parent.generateRedwoodTree(es, v);
+                boolean result = m_parent.generateRedwoodTree(es, v);
+                treeChanged(v);
+                return result;
             }
         };
 
@@ -830,7 +950,9 @@ public class AsyncWorld extends AbstractWorldWrapper {
         FuncEx<Boolean, MaxChangedBlocksException> func = new FuncEx<Boolean, MaxChangedBlocksException>() {
             @Override
             public Boolean execute() throws MaxChangedBlocksException {
-                return m_parent.generateTallRedwoodTree(es, v);
+                boolean result = m_parent.generateTallRedwoodTree(es, v);
+                treeChanged(v);
+                return result;
             }
         };
 
@@ -924,26 +1046,18 @@ public class AsyncWorld extends AbstractWorldWrapper {
 
     @Override
     public Vector getMinimumPoint() {
-        return m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<Vector>() {
-            @Override
-            public Vector execute() {
-                return m_parent.getMinimumPoint();
-            }
-        });
+        return getMetadata().m_minimumPoint;
     }
 
     @Override
     public Vector getMaximumPoint() {
-        return m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<Vector>() {
-            @Override
-            public Vector execute() {
-                return m_parent.getMaximumPoint();
-            }
-        });
+        return getMetadata().m_maximumPoint;
     }
 
     @Override
     public BaseBlock getBlock(final Vector vector) {
+        //The edit session history reads the old blocks using getBlock, they
+        //need to come from the world and not from the cached snapshot
         return m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<BaseBlock>() {
             @Override
             public BaseBlock execute() {
@@ -954,6 +1068,11 @@ public class AsyncWorld extends AbstractWorldWrapper {
 
     @Override
     public BaseBlock getLazyBlock(final Vector vector) {
+        BaseBlock block = getSnapshotBlock(vector);
+        if (block != null) {
+            return block;
+        }
+
         return m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<BaseBlock>() {
             @Override
             public BaseBlock execute() {
@@ -987,7 +1106,7 @@ public class AsyncWorld extends AbstractWorldWrapper {
 
                 final boolean result = m_parent.setBlock(vector, newBlock);
                 if (result) {
-                    logBlock(vector, player, oldBlock, newBlock);
+                    blockChanged(vector, player, oldBlock, newBlock);
                 }
 
                 return result;
@@ -1013,10 +1132,123 @@ public class AsyncWorld extends AbstractWorldWrapper {
     }
 
     /**
-     * Log placed block using blocks hub
+     * Log placed block using blocks hub and invalidate the cached chunk
      */
-    private void logBlock(Vector location, PlayerEntry player, BaseBlock oldBlock, BaseBlock newBlock) {
+    private void blockChanged(Vector location, PlayerEntry player, BaseBlock oldBlock, BaseBlock newBlock) {
         m_blocksHub.logBlock(player, m_bukkitWorld, location, oldBlock, newBlock);
+        if (m_bukkitWorld != null) {
+            m_chunkCache.invalidate(m_bukkitWorld.getName(),
+                    location.getBlockX() >> 4, location.getBlockZ() >> 4);
+        }
+    }
+
+    /**
+     * Invalidate the cached chunks around a generated tree, the tree
+     * generator changes the blocks without passing them through this world
+     *
+     * @param location
+     */
+    private void treeChanged(Vector location) {
+        if (m_bukkitWorld == null) {
+            return;
+        }
+
+        String worldName = m_bukkitWorld.getName();
+        int cx = location.getBlockX() >> 4;
+        int cz = location.getBlockZ() >> 4;
+        for (int x = cx - 1; x <= cx + 1; x++) {
+            for (int z = cz - 1; z <= cz + 1; z++) {
+                m_chunkCache.invalidate(worldName, x, z);
+            }
+        }
+    }
+
+    /**
+     * Get the cached world metadata, the metadata is reloaded when a world
+     * lifecycle event was fired since it was read
+     *
+     * @return
+     */
+    private Metadata getMetadata() {
+        Metadata metadata = m_metadata;
+        final int generation = s_metadataGeneration.get();
+        if (metadata != null && metadata.m_generation == generation) {
+            return metadata;
+        }
+
+        metadata = m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<Metadata>() {
+            @Override
+            public Metadata execute() {
+                return new Metadata(generation, m_parent);
+            }
+        });
+        m_metadata = metadata;
+
+        return metadata;
+    }
+
+    /**
+     * Get the block from the cached chunk snapshot
+     *
+     * @param vector
+     * @return null if the block can not be read from the snapshot
+     */
+    private BaseBlock getSnapshotBlock(Vector vector) {
+        ChunkSnapshot snapshot = getSnapshot(vector);
+        if (snapshot == null) {
+            return null;
+        }
+
+        int x = vector.getBlockX() & 15;
+        int y = vector.getBlockY();
+        int z = vector.getBlockZ() & 15;
+        int type = snapshot.getBlockTypeId(x, y, z);
+        if (s_tileEntities.get(type)) {
+            return null;
+        }
+
+        return new BaseBlock(type, snapshot.getBlockData(x, y, z));
+    }
+
+    /**
+     * Get the chunk snapshot for the async block reads
+     *
+     * @param vector
+     * @return null if the cache should not be used
+     */
+    private ChunkSnapshot getSnapshot(final Vector vector) {
+        if (m_bukkitWorld == null || !m_chunkCache.isEnabled() || m_dispatcher.isMainTask()) {
+            return null;
+        }
+
+        int y = vector.getBlockY();
+        if (y < 0 || y >= m_bukkitWorld.getMaxHeight()) {
+            return null;
+        }
+
+        final String worldName = m_bukkitWorld.getName();
+        final int cx = vector.getBlockX() >> 4;
+        final int cz = vector.getBlockZ() >> 4;
+        ChunkSnapshot snapshot = m_chunkCache.get(worldName, cx, cz);
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        long stamp = m_chunkCache.getStamp(worldName, cx, cz);
+        if (!m_chunkCache.checkStable(worldName, cx, cz, stamp)) {
+            //The chunk is being changed, read only the block
+            return null;
+        }
+
+        snapshot = m_dispatcher.performSafe(MutexProvider.getMutex(getWorld()), new Func<ChunkSnapshot>() {
+            @Override
+            public ChunkSnapshot execute() {
+                return m_bukkitWorld.getChunkAt(cx, cz).getChunkSnapshot(false, false, false);
+            }
+        }, m_bukkitWorld, vector);
+        m_chunkCache.put(worldName, cx, cz, stamp, snapshot);
+
+        return snapshot;
     }
 
     /**
@@ -64,7 +64,6 @@ import java.util.Iterator;
 import java.util.List;
 import org.primesoft.asyncworldedit.playerManager.PlayerEntry;
 import org.primesoft.asyncworldedit.utils.SessionCanceled;
-import org.primesoft.asyncworldedit.worldedit.blocks.BaseBlockWrapper;
 import org.primesoft.asyncworldedit.worldedit.BlockVector2DWrapper;
 import org.primesoft.asyncworldedit.worldedit.Vector2DWrapper;
 import org.primesoft.asyncworldedit.worldedit.VectorWrapper;
@@ -78,6 +77,10 @@ import org.primesoft.asyncworldedit.worldedit.util.LocationWrapper;
 public class CancelableWorld extends AbstractWorldWrapper {
     private final int m_jobId;
     private final PlayerEntry m_player;
+    /**
+     * The job context used for block changes
+     */
+    private final JobContext m_context;
     private boolean m_isCanceled;
 
     public CancelableWorld(World parent, int jobId, PlayerEntry player) {
@@ -86,6 +89,7 @@ public class CancelableWorld extends AbstractWorldWrapper {
         m_isCanceled = false;
         m_jobId = jobId;
         m_player = player;
+        m_context = new JobContext(jobId, true, player);
     }
 
     
@@ -150,8 +154,12 @@ public class CancelableWorld extends AbstractWorldWrapper {
         if (m_isCanceled) {
             throw new IllegalArgumentException(new SessionCanceled());
         }
-        return m_parent.setBlock(VectorWrapper.wrap(vector, m_jobId, true, m_player), 
-                BaseBlockWrapper.wrap(bb, m_jobId, true, m_player), bln);
+        JobContext previous = JobContext.enter(m_context);
+        try {
+            return m_parent.setBlock(vector, bb, bln);
+        } finally {
+            JobContext.exit(previous);
+        }
     }
 
     @Override
@@ -159,7 +167,12 @@ public class CancelableWorld extends AbstractWorldWrapper {
         if (m_isCanceled) {
             throw new IllegalArgumentException(new SessionCanceled());
         }
-        return m_parent.setBlockType(VectorWrapper.wrap(vector, m_jobId, true, m_player), i);
+        JobContext previous = JobContext.enter(m_context);
+        try {
+            return m_parent.setBlockType(vector, i);
+        } finally {
+            JobContext.exit(previous);
+        }
     }
 
     @Override
@@ -167,7 +180,12 @@ public class CancelableWorld extends AbstractWorldWrapper {
         if (m_isCanceled) {
             throw new IllegalArgumentException(new SessionCanceled());
         }
-        m_parent.setBlockData(VectorWrapper.wrap(vector, m_jobId, true, m_player), i);
+        JobContext previous = JobContext.enter(m_context);
+        try {
+            m_parent.setBlockData(vector, i);
+        } finally {
+            JobContext.exit(previous);
+        }
     }
 
     @Override
@@ -175,7 +193,12 @@ public class CancelableWorld extends AbstractWorldWrapper {
         if (m_isCanceled) {
             throw new IllegalArgumentException(new SessionCanceled());
         }
-        return m_parent.setTypeIdAndData(VectorWrapper.wrap(vector, m_jobId, true, m_player), i, i1);
+        JobContext previous = JobContext.enter(m_context);
+        try {
+            return m_parent.setTypeIdAndData(vector, i, i1);
+        } finally {
+            JobContext.exit(previous);
+        }
     }
 
     @Override
@@ -189,7 +212,12 @@ public class CancelableWorld extends AbstractWorldWrapper {
             throw new IllegalArgumentException(new SessionCanceled());
         }
 
-        return m_parent.clearContainerBlockContents(VectorWrapper.wrap(vector, m_jobId, true, m_player));
+        JobContext previous = JobContext.enter(m_context);
+        try {
+            return m_parent.clearContainerBlockContents(vector);
+        } finally {
+            JobContext.exit(previous);
+        }
     }
 
     @Override
@@ -360,8 +388,12 @@ public class CancelableWorld extends AbstractWorldWrapper {
             throw new IllegalArgumentException(new SessionCanceled());
         }
         
-        return m_parent.setBlock(VectorWrapper.wrap(vector, m_jobId, true, m_player), 
-                BaseBlockWrapper.wrap(bb, m_jobId, true, m_player));
+        JobContext previous = JobContext.enter(m_context);
+        try {
+            return m_parent.setBlock(vector, bb);
+        } finally {
+            JobContext.exit(previous);
+        }
     }
         
 
@@ -50,7 +50,8 @@ import org.primesoft.asyncworldedit.worldedit.IAsyncWrapper;
  */
 public class DataAsyncParams<T> extends BaseAsyncParams {
     /**
-     * Extract parameters
+     * Extract parameters, when the data is not wrapped the current thread
+     * job context is used
      * @param <T>
      * @param data
      * @return
@@ -68,6 +69,14 @@ public class DataAsyncParams<T> extends BaseAsyncParams {
             isAsync = wrapper.isAsync();
             player = wrapper.getPlayer();
             empty = false;
+        } else {
+            JobContext context = JobContext.getCurrent();
+            if (context != null) {
+                jobId = context.getJobId();
+                isAsync = context.isAsync();
+                player = context.getPlayer();
+                empty = false;
+            }
         }
 
         return new DataAsyncParams(data, isAsync, jobId, empty, player);
@@ -0,0 +1,112 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.worldedit.world;
+
+import org.primesoft.asyncworldedit.playerManager.PlayerEntry;
+
+/**
+ * The async job parameters bound to the current thread. Used instead of
+ * wrapping every vector and block passed from the job edit session to the
+ * async world.
+ *
+ * @author SBPrime
+ */
+public class JobContext {
+
+    /**
+     * The current thread context
+     */
+    private final static ThreadLocal<JobContext> s_current = new ThreadLocal<JobContext>();
+
+    /**
+     * Get the context bound to the current thread
+     *
+     * @return null if none
+     */
+    public static JobContext getCurrent() {
+        return s_current.get();
+    }
+
+    /**
+     * Bind the context to the current thread
+     *
+     * @param context
+     * @return The previous context, pass it to exit
+     */
+    public static JobContext enter(JobContext context) {
+        JobContext previous = s_current.get();
+        s_current.set(context);
+        return previous;
+    }
+
+    /**
+     * Restore the previous thread context
+     *
+     * @param previous
+     */
+    public static void exit(JobContext previous) {
+        s_current.set(previous);
+    }
+
+    private final int m_jobId;
+
+    private final boolean m_isAsync;
+
+    private final PlayerEntry m_player;
+
+    public JobContext(int jobId, boolean isAsync, PlayerEntry player) {
+        m_jobId = jobId;
+        m_isAsync = isAsync;
+        m_player = player;
+    }
+
+    public int getJobId() {
+        return m_jobId;
+    }
+
+    public boolean isAsync() {
+        return m_isAsync;
+    }
+
+    public PlayerEntry getPlayer() {
+        return m_player;
+    }
+}
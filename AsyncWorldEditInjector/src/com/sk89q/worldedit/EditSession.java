@@ -30,6 +30,7 @@ import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.extent.MaskingExtent;
 import com.sk89q.worldedit.extent.NullExtent;
 import com.sk89q.worldedit.extent.buffer.ForgetfulExtentBuffer;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
 import com.sk89q.worldedit.extent.cache.LastAccessExtentCache;
 import com.sk89q.worldedit.extent.inventory.BlockBag;
 import com.sk89q.worldedit.extent.inventory.BlockBagExtent;
@@ -78,6 +79,10 @@ import com.sk89q.worldedit.world.NullWorld;
 import com.sk89q.worldedit.world.World;
 import com.sk89q.worldedit.world.biome.BaseBiome;
 
+import org.primesoft.asyncworldedit.injector.clipboard.StackedClipboard;
+import org.primesoft.asyncworldedit.injector.utils.OperationBinding;
+import org.primesoft.asyncworldedit.injector.utils.OperationFactory;
+
 import javax.annotation.Nullable;
 import java.util.*;
 import java.util.logging.Level;
@@ -885,8 +890,14 @@ public class EditSession implements Extent {
         checkNotNull(region);
         checkNotNull(pattern);
 
-        BlockReplace replace = new BlockReplace(this, Patterns.wrap(pattern));
-        RegionVisitor visitor = new RegionVisitor(region, replace);
+        final com.sk89q.worldedit.function.pattern.Pattern fill = wrapPattern(pattern);
+        RegionVisitor visitor = new RegionVisitor(region, new BlockReplace(this, fill));
+        OperationBinding.bind(visitor, this, region, new OperationFactory() {
+            @Override
+            public Operation create(EditSession session, Region region) {
+                return new RegionVisitor(region, new BlockReplace(session, fill));
+            }
+        });
         Operations.completeLegacy(visitor);
         return visitor.getAffected();
     }
@@ -938,13 +949,66 @@ public class EditSession implements Extent {
         checkNotNull(mask);
         checkNotNull(pattern);
 
-        BlockReplace replace = new BlockReplace(this, Patterns.wrap(pattern));
+        final com.sk89q.worldedit.function.pattern.Pattern fill = wrapPattern(pattern);
+        BlockReplace replace = new BlockReplace(this, fill);
         RegionMaskingFilter filter = new RegionMaskingFilter(mask, replace);
         RegionVisitor visitor = new RegionVisitor(region, filter);
+        if (bindMask(mask, this) != null) {
+            final Mask source = mask;
+            OperationBinding.bind(visitor, this, region, new OperationFactory() {
+                @Override
+                public Operation create(EditSession session, Region region) {
+                    return new RegionVisitor(region, new RegionMaskingFilter(bindMask(source, session),
+                            new BlockReplace(session, fill)));
+                }
+            });
+        }
         Operations.completeLegacy(visitor);
         return visitor.getAffected();
     }
 
+    /**
+     * Create a copy of a block mask that tests the provided edit session.
+     * Only the block masks of this edit session can be copied.
+     *
+     * @param mask the mask
+     * @param session the edit session
+     * @return the mask copy, or null if the mask can not be copied
+     */
+    private @Nullable Mask bindMask(Mask mask, EditSession session) {
+        if (!(mask instanceof AbstractExtentMask) || ((AbstractExtentMask) mask).getExtent() != this) {
+            return null;
+        }
+
+        Class<?> cls = mask.getClass();
+        if (cls == ExistingBlockMask.class) {
+            return new ExistingBlockMask(session);
+        }
+        if (cls == FuzzyBlockMask.class) {
+            return new FuzzyBlockMask(session, ((FuzzyBlockMask) mask).getBlocks());
+        }
+        if (cls == BlockMask.class) {
+            return new BlockMask(session, ((BlockMask) mask).getBlocks());
+        }
+
+        return null;
+    }
+
+    /**
+     * Wrap a legacy pattern. Single block patterns are converted to a
+     * {@link BlockPattern} so the fill operations can be recognised.
+     *
+     * @param pattern the legacy pattern
+     * @return the pattern
+     */
+    private static com.sk89q.worldedit.function.pattern.Pattern wrapPattern(Pattern pattern) {
+        if (pattern instanceof SingleBlockPattern) {
+            return new BlockPattern(((SingleBlockPattern) pattern).getBlock());
+        }
+
+        return Patterns.wrap(pattern);
+    }
+
     /**
      * Sets the blocks at the center of the given region to the given pattern.
      * If the center sits between two blocks on a certain axis, then two blocks
@@ -1156,21 +1220,52 @@ public class EditSession implements Extent {
      * @return number of blocks affected
      * @throws MaxChangedBlocksException thrown if too many blocks are changed
      */
-    public int stackCuboidRegion(Region region, Vector dir, int count, boolean copyAir) throws MaxChangedBlocksException {
+    public int stackCuboidRegion(Region region, final Vector dir, final int count, final boolean copyAir) throws MaxChangedBlocksException {
         checkNotNull(region);
         checkNotNull(dir);
         checkArgument(count >= 1, "count >= 1 required");
 
+        ForwardExtentCopy[] copy = new ForwardExtentCopy[1];
+        Operation stack = createStack(this, region, dir, count, copyAir, copy);
+        OperationBinding.bind(stack, this, region, new OperationFactory() {
+            @Override
+            public Operation create(EditSession session, Region region) {
+                return createStack(session, region, dir, count, copyAir, new ForwardExtentCopy[1]);
+            }
+        });
+        Operations.completeLegacy(stack);
+        return copy[0].getAffected();
+    }
+
+    /**
+     * Create the stack operation.
+     *
+     * @param session the edit session to change
+     * @param region the region to stack
+     * @param dir the direction to stack
+     * @param count the number of times to stack
+     * @param copyAir true to also copy air blocks
+     * @param copy receives the copy operation
+     * @return the operation
+     */
+    private static Operation createStack(EditSession session, Region region, Vector dir, int count,
+            boolean copyAir, ForwardExtentCopy[] copy) {
         Vector size = region.getMaximumPoint().subtract(region.getMinimumPoint()).add(1, 1, 1);
-        Vector to = region.getMinimumPoint();
-        ForwardExtentCopy copy = new ForwardExtentCopy(this, region, this, to);
-        copy.setRepetitions(count);
-        copy.setTransform(new AffineTransform().translate(dir.multiply(size)));
+
+        // Read the region once, all the copies are views of the same blocks
+        BlockArrayClipboard source = new BlockArrayClipboard(region);
+        ForwardExtentCopy read = new ForwardExtentCopy(session, region, source, region.getMinimumPoint());
+
+        StackedClipboard stacked = new StackedClipboard(source, dir.multiply(size), count);
+        Region stackRegion = stacked.getRegion();
+        copy[0] = new ForwardExtentCopy(stacked, stackRegion, session, stackRegion.getMinimumPoint());
+        Mask mask = stacked.getStackMask();
         if (!copyAir) {
-            copy.setSourceMask(new ExistingBlockMask(this));
+            mask = new MaskIntersection(mask, new ExistingBlockMask(stacked));
         }
-        Operations.completeLegacy(copy);
-        return copy.getAffected();
+        copy[0].setSourceMask(mask);
+
+        return new OperationQueue(read, copy[0]);
     }
 
     /**
@@ -1184,37 +1279,61 @@ public class EditSession implements Extent {
      * @return number of blocks moved
      * @throws MaxChangedBlocksException thrown if too many blocks are changed
      */
-    public int moveRegion(Region region, Vector dir, int distance, boolean copyAir, BaseBlock replacement) throws MaxChangedBlocksException {
+    public int moveRegion(Region region, final Vector dir, final int distance, final boolean copyAir, final BaseBlock replacement) throws MaxChangedBlocksException {
         checkNotNull(region);
         checkNotNull(dir);
         checkArgument(distance >= 1, "distance >= 1 required");
 
+        ForwardExtentCopy[] copy = new ForwardExtentCopy[1];
+        Operation operation = createMove(this, region, dir, distance, copyAir, replacement, copy);
+        OperationBinding.bind(operation, this, region, new OperationFactory() {
+            @Override
+            public Operation create(EditSession session, Region region) {
+                return createMove(session, region, dir, distance, copyAir, replacement, new ForwardExtentCopy[1]);
+            }
+        });
+        Operations.completeLegacy(operation);
+
+        return copy[0].getAffected();
+    }
+
+    /**
+     * Create the move operation.
+     *
+     * @param session the edit session to change
+     * @param region the region to move
+     * @param dir the direction
+     * @param distance the distance to move
+     * @param copyAir true to copy air blocks
+     * @param replacement the replacement block to fill in after moving, or null to use air
+     * @param copy receives the copy operation
+     * @return the operation
+     */
+    private static Operation createMove(EditSession session, Region region, Vector dir, int distance,
+            boolean copyAir, BaseBlock replacement, ForwardExtentCopy[] copy) {
         Vector to = region.getMinimumPoint();
 
         // Remove the original blocks
         com.sk89q.worldedit.function.pattern.Pattern pattern = replacement != null ?
                 new BlockPattern(replacement) :
                 new BlockPattern(new BaseBlock(BlockID.AIR));
-        BlockReplace remove = new BlockReplace(this, pattern);
+        BlockReplace remove = new BlockReplace(session, pattern);
 
         // Copy to a buffer so we don't destroy our original before we can copy all the blocks from it
-        ForgetfulExtentBuffer buffer = new ForgetfulExtentBuffer(this, new RegionMask(region));
-        ForwardExtentCopy copy = new ForwardExtentCopy(this, region, buffer, to);
-        copy.setTransform(new AffineTransform().translate(dir.multiply(distance)));
-        copy.setSourceFunction(remove); // Remove
-        copy.setRemovingEntities(true);
+        ForgetfulExtentBuffer buffer = new ForgetfulExtentBuffer(session, new RegionMask(region));
+        copy[0] = new ForwardExtentCopy(session, region, buffer, to);
+        copy[0].setTransform(new AffineTransform().translate(dir.multiply(distance)));
+        copy[0].setSourceFunction(remove); // Remove
+        copy[0].setRemovingEntities(true);
         if (!copyAir) {
-            copy.setSourceMask(new ExistingBlockMask(this));
+            copy[0].setSourceMask(new ExistingBlockMask(session));
         }
 
         // Then we need to copy the buffer to the world
-        BlockReplace replace = new BlockReplace(this, buffer);
+        BlockReplace replace = new BlockReplace(session, buffer);
         RegionVisitor visitor = new RegionVisitor(buffer.asRegion(), replace);
 
-        OperationQueue operation = new OperationQueue(copy, visitor);
-        Operations.completeLegacy(operation);
-
-        return copy.getAffected();
+        return new OperationQueue(copy[0], visitor);
     }
 
     /**
@@ -19,29 +19,39 @@
 
 package com.sk89q.worldedit.command;
 
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
 import com.sk89q.minecraft.util.commands.Command;
 import com.sk89q.minecraft.util.commands.CommandContext;
 import com.sk89q.minecraft.util.commands.CommandException;
 import com.sk89q.minecraft.util.commands.CommandPermissions;
 import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.IncompleteRegionException;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.util.io.file.FilenameException;
 import com.sk89q.worldedit.util.io.file.FilenameResolutionException;
 import com.sk89q.worldedit.LocalConfiguration;
 import com.sk89q.worldedit.LocalSession;
 import com.sk89q.worldedit.WorldEdit;
 import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.entity.BaseEntity;
 import com.sk89q.worldedit.entity.Player;
 import com.sk89q.worldedit.extension.platform.Actor;
-import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
 import com.sk89q.worldedit.extent.clipboard.Clipboard;
 import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormat;
 import com.sk89q.worldedit.extent.clipboard.io.ClipboardReader;
 import com.sk89q.worldedit.extent.clipboard.io.ClipboardWriter;
-import com.sk89q.worldedit.function.operation.Operations;
+import com.sk89q.worldedit.extent.clipboard.io.NBTConversions;
+import com.sk89q.worldedit.extent.clipboard.io.SchematicReader;
+import com.sk89q.worldedit.extent.clipboard.io.SchematicWriter;
 import com.sk89q.worldedit.math.transform.Transform;
 import com.sk89q.worldedit.session.ClipboardHolder;
+import com.sk89q.worldedit.util.Location;
 import com.sk89q.worldedit.util.io.Closer;
 import com.sk89q.worldedit.util.command.parametric.Optional;
+import com.sk89q.worldedit.util.command.parametric.Switch;
 import com.sk89q.worldedit.world.registry.WorldData;
 
 import java.io.BufferedInputStream;
@@ -58,7 +68,15 @@ import java.util.logging.Logger;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import org.primesoft.asyncworldedit.injector.classfactory.IJob;
+import org.primesoft.asyncworldedit.injector.classfactory.IJobProcessor;
+import org.primesoft.asyncworldedit.injector.classfactory.IWorkerPool;
+import org.primesoft.asyncworldedit.injector.clipboard.TransformedClipboard;
 import org.primesoft.asyncworldedit.injector.core.InjectorCore;
+import org.primesoft.asyncworldedit.injector.schematic.SchematicCache;
+import org.primesoft.asyncworldedit.injector.schematic.SchematicClipboard;
+import org.primesoft.asyncworldedit.injector.schematic.PooledGzipInputStream;
+import org.primesoft.asyncworldedit.injector.schematic.PooledGzipOutputStream;
+import org.primesoft.asyncworldedit.injector.schematic.StreamedSchematic;
 
 /**
  * Commands that work with schematic files.
@@ -80,12 +98,15 @@ public class SchematicCommands {
 
     @Command(
             aliases = { "load" },
-            usage = "[<format>] <filename>",
-            desc = "Load a schematic into your clipboard"
+            usage = "[-p] [<format>] <filename>",
+            desc = "Load a schematic into your clipboard",
+            help = "Load a schematic into your clipboard\n" +
+                    " -p pastes the schematic at your position without loading it to the clipboard"
     )
     @Deprecated
     @CommandPermissions({ "worldedit.clipboard.load", "worldedit.schematic.load" })
-    public void load(final Player player, final LocalSession session, @Optional("schematic") String formatName, final String filename) throws FilenameException {
+    public void load(final Player player, final LocalSession session, @Switch('p') final boolean paste,
+            @Optional("schematic") String formatName, final String filename) throws FilenameException {
         LocalConfiguration config = worldEdit.getConfiguration();
 
         final File dir = worldEdit.getWorkingDirectoryFile(config.saveDir);
@@ -101,6 +122,10 @@ public class SchematicCommands {
             player.printError("Unknown schematic format: " + formatName);
             return;
         }
+        if (paste && format != ClipboardFormat.SCHEMATIC) {
+            player.printError("Only the " + ClipboardFormat.SCHEMATIC.name() + " format can be pasted directly.");
+            return;
+        }
 
         InjectorCore.getInstance().getClassFactory().getJobProcessor().executeJob(player, new IJob() {
             @Override
@@ -117,13 +142,32 @@ public class SchematicCommands {
 
                     if (!filePath.substring(0, dirPath.length()).equals(dirPath)) {
                         player.printError("Clipboard file could not read or it does not exist.");
-                    } else {
-                        FileInputStream fis = closer.register(new FileInputStream(f));
-                        BufferedInputStream bis = closer.register(new BufferedInputStream(fis));
-                        ClipboardReader reader = format.getReader(bis);
+                    } else if (paste) {
+                        StreamedSchematic schematic = SchematicCache.getInstance().get(f);
+                        int blocks = pasteStreamed(player, session, schematic);
 
+                        log.info(player.getName() + " pasted " + filePath);
+                        player.print(filename + " pasted (" + blocks + " blocks).");
+                    } else {
                         WorldData worldData = player.getWorld().getWorldData();
-                        Clipboard clipboard = reader.read(player.getWorld().getWorldData());
+                        StreamedSchematic schematic = format == ClipboardFormat.SCHEMATIC
+                                ? SchematicCache.getInstance().get(f) : null;
+                        Clipboard clipboard;
+                        if (schematic != null) {
+                            clipboard = new SchematicClipboard(schematic);
+                        } else {
+                            FileInputStream fis = closer.register(new FileInputStream(f));
+                            BufferedInputStream bis = closer.register(new BufferedInputStream(fis));
+                            ClipboardReader reader;
+                            if (format == ClipboardFormat.SCHEMATIC) {
+                                IWorkerPool pool = InjectorCore.getInstance().getClassFactory().getWorkerPool();
+                                PooledGzipInputStream gzip = closer.register(new PooledGzipInputStream(bis, pool));
+                                reader = new SchematicReader(new NBTInputStream(gzip));
+                            } else {
+                                reader = format.getReader(bis);
+                            }
+                            clipboard = reader.read(worldData);
+                        }
                         session.setClipboard(new ClipboardHolder(clipboard, worldData));
 
                         log.info(player.getName() + " loaded " + filePath);
@@ -132,6 +176,10 @@ public class SchematicCommands {
                 } catch (IOException e) {
                     player.printError("Schematic could not read or it does not exist: " + e.getMessage());
                     log.log(Level.WARNING, "Failed to load a saved clipboard", e);
+                } catch (IncompleteRegionException e) {
+                    player.printError("Unable to get the paste position.");
+                } catch (MaxChangedBlocksException e) {
+                    player.printError("Max blocks changed in an operation reached (" + e.getBlockLimit() + ").");
                 } finally {
                     try {
                         closer.close();
@@ -143,6 +191,65 @@ public class SchematicCommands {
 
     }
 
+    /**
+     * Paste the schematic at the player position. The blocks are fed to the
+     * edit session one chunk column at a time, waiting for the block queue
+     * to drain between the columns. The entities are pasted last.
+     *
+     * @param player
+     * @param session
+     * @param schematic
+     * @return number of pasted blocks
+     * @throws IncompleteRegionException
+     * @throws MaxChangedBlocksException
+     */
+    private static int pasteStreamed(Player player, LocalSession session, StreamedSchematic schematic)
+            throws IncompleteRegionException, MaxChangedBlocksException {
+        IJobProcessor jobProcessor = InjectorCore.getInstance().getClassFactory().getJobProcessor();
+        Vector to = session.getPlacementPosition(player).add(schematic.getOffset());
+        EditSession editSession = session.createEditSession(player);
+        int width = schematic.getWidth();
+        int height = schematic.getHeight();
+        int length = schematic.getLength();
+        int blocks = 0;
+
+        try {
+            for (int cx = 0; cx < width; cx += 16) {
+                for (int cz = 0; cz < length; cz += 16) {
+                    if (!jobProcessor.waitForQueue(player)) {
+                        return blocks;
+                    }
+
+                    int maxX = Math.min(cx + 16, width);
+                    int maxZ = Math.min(cz + 16, length);
+                    for (int y = 0; y < height; y++) {
+                        for (int z = cz; z < maxZ; z++) {
+                            for (int x = cx; x < maxX; x++) {
+                                editSession.setBlock(to.add(x, y, z), schematic.getBlock(x, y, z));
+                                blocks++;
+                            }
+                        }
+                    }
+                }
+            }
+
+            Vector min = schematic.getOrigin();
+            for (CompoundTag tag : schematic.getEntities()) {
+                String id = tag.getString("id");
+                if (!id.isEmpty()) {
+                    Location location = NBTConversions.toLocation(editSession, tag.getListTag("Pos"), tag.getListTag("Rotation"));
+                    editSession.createEntity(new Location(editSession, location.toVector().subtract(min).add(to),
+                            location.getYaw(), location.getPitch()), new BaseEntity(id, tag));
+                }
+            }
+        } finally {
+            editSession.flushQueue();
+            session.remember(editSession);
+        }
+
+        return blocks;
+    }
+
     @Command(
             aliases = { "save" },
             usage = "[<format>] <filename>",
@@ -167,12 +274,9 @@ public class SchematicCommands {
         Transform transform = holder.getTransform();
         final Clipboard target;
 
-        // If we have a transform, bake it into the copy
+        // If we have a transform, bake it into the blocks while writing
         if (!transform.isIdentity()) {
-            FlattenedClipboardTransform result = FlattenedClipboardTransform.transform(clipboard, transform, holder.getWorldData());
-            target = new BlockArrayClipboard(result.getTransformedRegion());
-            target.setOrigin(clipboard.getOrigin());
-            Operations.completeLegacy(result.copyTo(target));
+            target = new TransformedClipboard(clipboard, transform, holder.getWorldData());
         } else {
             target = clipboard;
         }
@@ -198,7 +302,14 @@ public class SchematicCommands {
 
                     FileOutputStream fos = closer.register(new FileOutputStream(f));
                     BufferedOutputStream bos = closer.register(new BufferedOutputStream(fos));
-                    ClipboardWriter writer = closer.register(format.getWriter(bos));
+                    ClipboardWriter writer;
+                    if (format == ClipboardFormat.SCHEMATIC) {
+                        IWorkerPool pool = InjectorCore.getInstance().getClassFactory().getWorkerPool();
+                        PooledGzipOutputStream gzip = closer.register(new PooledGzipOutputStream(bos, pool));
+                        writer = closer.register(new SchematicWriter(new NBTOutputStream(gzip)));
+                    } else {
+                        writer = closer.register(format.getWriter(bos));
+                    }
                     writer.write(target, holder.getWorldData());
                     log.info(player.getName() + " saved " + f.getCanonicalPath());
                     player.print(filename + " saved.");
@@ -49,4 +49,6 @@ public interface IClassFactory {
     IOperationProcessor getOperationProcessor();
     
     IJobProcessor getJobProcessor();
+
+    IWorkerPool getWorkerPool();
 }
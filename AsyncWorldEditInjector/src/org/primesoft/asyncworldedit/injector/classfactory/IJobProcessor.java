@@ -48,4 +48,13 @@ import com.sk89q.worldedit.entity.Player;
  */
 public interface IJobProcessor {
     void executeJob(Player player, IJob job);
+
+    /**
+     * Wait until the player block queue has room for more blocks. Used by jobs
+     * that feed the blocks in parts.
+     *
+     * @param player
+     * @return false if the current job was canceled
+     */
+    boolean waitForQueue(Player player);
 }
@@ -43,6 +43,7 @@ package org.primesoft.asyncworldedit.injector.classfactory.base;
 import org.primesoft.asyncworldedit.injector.classfactory.IJobProcessor;
 import org.primesoft.asyncworldedit.injector.classfactory.IOperationProcessor;
 import org.primesoft.asyncworldedit.injector.classfactory.IClassFactory;
+import org.primesoft.asyncworldedit.injector.classfactory.IWorkerPool;
 
 /**
  *
@@ -51,6 +52,7 @@ import org.primesoft.asyncworldedit.injector.classfactory.IClassFactory;
 public class BaseClassFactory implements IClassFactory {
     private final IOperationProcessor m_operationProcessor = new BaseOperationProcessor();    
     private final IJobProcessor m_jobProcessor = new BaseJobProcessor();
+    private final IWorkerPool m_workerPool = new BaseWorkerPool();
 
     @Override
     public IOperationProcessor getOperationProcessor() {
@@ -61,4 +63,9 @@ public class BaseClassFactory implements IClassFactory {
     public IJobProcessor getJobProcessor() {
         return m_jobProcessor;
     }
+
+    @Override
+    public IWorkerPool getWorkerPool() {
+        return m_workerPool;
+    }
 }
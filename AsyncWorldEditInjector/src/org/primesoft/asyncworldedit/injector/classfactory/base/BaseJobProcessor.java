@@ -56,5 +56,10 @@ public class BaseJobProcessor implements IJobProcessor {
             job.execute();
         }
     }
+
+    @Override
+    public boolean waitForQueue(Player player) {
+        return true;
+    }
     
 }
@@ -0,0 +1,221 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.injector.clipboard;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.function.operation.Operation;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.biome.BaseBiome;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Copy-on-write clipboard view. The blocks are read from the backing data
+ * of the view, the changed blocks are stored in a compact storage that is
+ * created on the first write.
+ *
+ * @author SBPrime
+ */
+public abstract class ClipboardView implements Clipboard {
+
+    /**
+     * The view region
+     */
+    private final Region m_region;
+
+    /**
+     * The region minimum point
+     */
+    private final Vector m_min;
+
+    /**
+     * The clipboard origin
+     */
+    private Vector m_origin;
+
+    /**
+     * The changed blocks (lazy created)
+     */
+    private PaletteBlockStorage m_changes;
+
+    protected ClipboardView(Region region, Vector origin) {
+        m_region = region.clone();
+        m_min = region.getMinimumPoint();
+        m_origin = origin;
+    }
+
+    /**
+     * Get the block from the backing data
+     *
+     * @param position position inside the view region
+     * @return The block or null for air
+     */
+    protected abstract BaseBlock getSourceBlock(Vector position);
+
+    /**
+     * Get the entities from the backing data
+     *
+     * @return
+     */
+    protected abstract List<? extends Entity> getSourceEntities();
+
+    /**
+     * Was any block changed in this view
+     *
+     * @return
+     */
+    public boolean isModified() {
+        return m_changes != null;
+    }
+
+    @Override
+    public Region getRegion() {
+        return m_region.clone();
+    }
+
+    @Override
+    public Vector getDimensions() {
+        return m_region.getMaximumPoint().subtract(m_min).add(1, 1, 1);
+    }
+
+    @Override
+    public Vector getOrigin() {
+        return m_origin;
+    }
+
+    @Override
+    public void setOrigin(Vector origin) {
+        m_origin = origin;
+    }
+
+    @Override
+    public Vector getMinimumPoint() {
+        return m_region.getMinimumPoint();
+    }
+
+    @Override
+    public Vector getMaximumPoint() {
+        return m_region.getMaximumPoint();
+    }
+
+    @Override
+    public List<? extends Entity> getEntities(Region region) {
+        List<Entity> filtered = new ArrayList<Entity>();
+        for (Entity entity : getSourceEntities()) {
+            if (region.contains(entity.getLocation().toVector())) {
+                filtered.add(entity);
+            }
+        }
+        return Collections.unmodifiableList(filtered);
+    }
+
+    @Override
+    public List<? extends Entity> getEntities() {
+        return Collections.unmodifiableList(getSourceEntities());
+    }
+
+    @Override
+    public Entity createEntity(Location location, BaseEntity entity) {
+        return null;
+    }
+
+    @Override
+    public BaseBlock getBlock(Vector position) {
+        if (!m_region.contains(position)) {
+            return new BaseBlock(BlockID.AIR);
+        }
+
+        if (m_changes != null) {
+            Vector v = position.subtract(m_min);
+            BaseBlock block = m_changes.getBlock(v.getBlockX(), v.getBlockY(), v.getBlockZ());
+            if (block != null) {
+                return block;
+            }
+        }
+
+        BaseBlock block = getSourceBlock(position);
+        return block != null ? block : new BaseBlock(BlockID.AIR);
+    }
+
+    @Override
+    public BaseBlock getLazyBlock(Vector position) {
+        return getBlock(position);
+    }
+
+    @Override
+    public boolean setBlock(Vector position, BaseBlock block) {
+        if (!m_region.contains(position)) {
+            return false;
+        }
+
+        if (m_changes == null) {
+            Vector size = getDimensions();
+            m_changes = new PaletteBlockStorage(size.getBlockX(), size.getBlockY(), size.getBlockZ());
+        }
+
+        Vector v = position.subtract(m_min);
+        m_changes.setBlock(v.getBlockX(), v.getBlockY(), v.getBlockZ(), block);
+        return true;
+    }
+
+    @Override
+    public BaseBiome getBiome(Vector2D position) {
+        return new BaseBiome(0);
+    }
+
+    @Override
+    public boolean setBiome(Vector2D position, BaseBiome biome) {
+        return false;
+    }
+
+    @Override
+    public Operation commit() {
+        return null;
+    }
+}
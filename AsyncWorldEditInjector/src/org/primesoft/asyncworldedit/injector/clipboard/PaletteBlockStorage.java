@@ -0,0 +1,267 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.injector.clipboard;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact block storage. Each distinct block (id and data) is stored once in
+ * the palette, the blocks are stored as packed palette indices using 4, 8 or
+ * 16 bits per block. The NBT data is kept in a sparse map.
+ *
+ * @author SBPrime
+ */
+public class PaletteBlockStorage {
+
+    /**
+     * Maximum number of bits per block
+     */
+    private final static int MAX_BITS = 16;
+
+    /**
+     * Palette index used for blocks that were not set
+     */
+    private final static int EMPTY = 0;
+
+    private final int m_width;
+    private final int m_height;
+    private final int m_length;
+
+    /**
+     * The palette (the first entry is the empty block)
+     */
+    private final List<BaseBlock> m_palette = new ArrayList<BaseBlock>();
+
+    /**
+     * Block key to palette index
+     */
+    private final Map<Integer, Integer> m_paletteIndex = new HashMap<Integer, Integer>();
+
+    /**
+     * The NBT data by block index
+     */
+    private final Map<Integer, CompoundTag> m_nbt = new HashMap<Integer, CompoundTag>();
+
+    /**
+     * Number of bits per block
+     */
+    private int m_bits;
+
+    /**
+     * The packed palette indices
+     */
+    private long[] m_data;
+
+    public PaletteBlockStorage(int width, int height, int length) {
+        long volume = (long) width * height * length;
+        if (width < 0 || height < 0 || length < 0 || volume > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid clipboard size");
+        }
+
+        m_width = width;
+        m_height = height;
+        m_length = length;
+        m_palette.add(null);
+        m_bits = 4;
+        m_data = new long[getWords((int) volume, m_bits)];
+    }
+
+    public int getWidth() {
+        return m_width;
+    }
+
+    public int getHeight() {
+        return m_height;
+    }
+
+    public int getLength() {
+        return m_length;
+    }
+
+    /**
+     * Number of distinct blocks
+     *
+     * @return
+     */
+    public int getPaletteSize() {
+        return m_palette.size() - 1;
+    }
+
+    /**
+     * Get a copy of the block
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return The block or null if the block was not set
+     */
+    public BaseBlock getBlock(int x, int y, int z) {
+        int index = getIndex(x, y, z);
+        int entry = get(index);
+        if (entry == EMPTY) {
+            return null;
+        }
+
+        BaseBlock block = m_palette.get(entry);
+        CompoundTag nbt = m_nbt.isEmpty() ? null : m_nbt.get(index);
+        return new BaseBlock(block.getType(), block.getData(), nbt);
+    }
+
+    /**
+     * Get the block id without creating the block
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return The block id or -1 if the block was not set
+     */
+    public int getBlockType(int x, int y, int z) {
+        int entry = get(getIndex(x, y, z));
+        return entry == EMPTY ? -1 : m_palette.get(entry).getType();
+    }
+
+    /**
+     * Set the block
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param block The block, null to clear the block
+     */
+    public void setBlock(int x, int y, int z, BaseBlock block) {
+        int index = getIndex(x, y, z);
+        if (block == null) {
+            set(index, EMPTY);
+            m_nbt.remove(index);
+            return;
+        }
+
+        set(index, getPaletteEntry(block.getType(), block.getData()));
+
+        CompoundTag nbt = block.hasNbtData() ? block.getNbtData() : null;
+        if (nbt != null) {
+            m_nbt.put(index, nbt);
+        } else if (!m_nbt.isEmpty()) {
+            m_nbt.remove(index);
+        }
+    }
+
+    private int getIndex(int x, int y, int z) {
+        if (x < 0 || y < 0 || z < 0 || x >= m_width || y >= m_height || z >= m_length) {
+            throw new ArrayIndexOutOfBoundsException("Block outside of the clipboard");
+        }
+
+        return (y * m_length + z) * m_width + x;
+    }
+
+    /**
+     * Get or add the palette entry for the block
+     *
+     * @param type
+     * @param data
+     * @return
+     */
+    private int getPaletteEntry(int type, int data) {
+        Integer key = (type << 16) | (data & 0xffff);
+        Integer entry = m_paletteIndex.get(key);
+        if (entry != null) {
+            return entry;
+        }
+
+        int result = m_palette.size();
+        if (result >= (1 << MAX_BITS)) {
+            throw new IllegalStateException("Too many different blocks in the clipboard");
+        }
+        if (result >= (1 << m_bits)) {
+            resize(m_bits * 2);
+        }
+
+        m_palette.add(new BaseBlock(type, data));
+        m_paletteIndex.put(key, result);
+        return result;
+    }
+
+    private int get(int index) {
+        int perWord = 64 / m_bits;
+        long word = m_data[index / perWord];
+        return (int) ((word >>> ((index % perWord) * m_bits)) & ((1L << m_bits) - 1));
+    }
+
+    private void set(int index, int value) {
+        int perWord = 64 / m_bits;
+        int shift = (index % perWord) * m_bits;
+        long mask = ((1L << m_bits) - 1) << shift;
+        int word = index / perWord;
+        m_data[word] = (m_data[word] & ~mask) | ((long) value << shift);
+    }
+
+    /**
+     * Repack the indices using more bits per block
+     *
+     * @param bits
+     */
+    private void resize(int bits) {
+        int volume = m_width * m_height * m_length;
+        long[] oldData = m_data;
+        int oldBits = m_bits;
+        int oldPerWord = 64 / oldBits;
+        long oldMask = (1L << oldBits) - 1;
+
+        m_bits = bits;
+        m_data = new long[getWords(volume, bits)];
+        for (int i = 0; i < volume; i++) {
+            int value = (int) ((oldData[i / oldPerWord] >>> ((i % oldPerWord) * oldBits)) & oldMask);
+            if (value != EMPTY) {
+                set(i, value);
+            }
+        }
+    }
+
+    private static int getWords(int volume, int bits) {
+        int perWord = 64 / bits;
+        return (volume + perWord - 1) / perWord;
+    }
+}
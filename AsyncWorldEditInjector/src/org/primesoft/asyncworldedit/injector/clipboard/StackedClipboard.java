@@ -0,0 +1,244 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.injector.clipboard;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.function.mask.AbstractMask;
+import com.sk89q.worldedit.function.mask.Mask;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.Location;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * View of a clipboard repeated a number of times with a fixed offset. All
+ * the copies read the blocks from the same source clipboard. The source
+ * itself (copy 0) is not part of the view.
+ *
+ * @author SBPrime
+ */
+public class StackedClipboard extends ClipboardView {
+
+    /**
+     * The source clipboard
+     */
+    private final Clipboard m_source;
+
+    /**
+     * The source region
+     */
+    private final Region m_sourceRegion;
+
+    private final Vector m_sourceMin;
+
+    private final Vector m_sourceMax;
+
+    /**
+     * Offset between two copies
+     */
+    private final Vector m_offset;
+
+    /**
+     * Number of copies
+     */
+    private final int m_count;
+
+    /**
+     * The shifted entities (lazy created)
+     */
+    private List<Entity> m_entities;
+
+    public StackedClipboard(Clipboard source, Vector offset, int count) {
+        super(getStackRegion(source.getRegion(), offset, count), source.getOrigin());
+
+        m_source = source;
+        m_sourceRegion = source.getRegion();
+        m_sourceMin = m_sourceRegion.getMinimumPoint();
+        m_sourceMax = m_sourceRegion.getMaximumPoint();
+        m_offset = offset.toBlockPoint();
+        m_count = count;
+    }
+
+    /**
+     * Get the bounding box of all the copies
+     *
+     * @param region
+     * @param offset
+     * @param count
+     * @return
+     */
+    private static Region getStackRegion(Region region, Vector offset, int count) {
+        Vector min = region.getMinimumPoint();
+        Vector max = region.getMaximumPoint();
+        Vector first = offset.toBlockPoint();
+        Vector last = first.multiply(count);
+
+        return new CuboidRegion(Vector.getMinimum(min.add(first), min.add(last)),
+                Vector.getMaximum(max.add(first), max.add(last)));
+    }
+
+    /**
+     * Get the mask that matches only the blocks that belong to a copy of the
+     * source region
+     *
+     * @return
+     */
+    public Mask getStackMask() {
+        return new AbstractMask() {
+            @Override
+            public boolean test(Vector vector) {
+                return getSourcePosition(vector) != null;
+            }
+        };
+    }
+
+    @Override
+    protected BaseBlock getSourceBlock(Vector position) {
+        Vector source = getSourcePosition(position);
+        return source != null ? m_source.getBlock(source) : null;
+    }
+
+    @Override
+    protected List<? extends Entity> getSourceEntities() {
+        if (m_entities == null) {
+            List<Entity> entities = new ArrayList<Entity>();
+            List<? extends Entity> source = m_source.getEntities();
+            for (int i = 1; i <= m_count; i++) {
+                Vector shift = m_offset.multiply(i);
+                for (Entity entity : source) {
+                    BaseEntity state = entity.getState();
+                    if (state != null) {
+                        entities.add(new StackedEntity(entity.getLocation(), shift, state));
+                    }
+                }
+            }
+            m_entities = entities;
+        }
+
+        return m_entities;
+    }
+
+    /**
+     * Get the position in the source clipboard
+     *
+     * @param position
+     * @return The source position or null if the position is not in any copy
+     */
+    private Vector getSourcePosition(Vector position) {
+        int copy = getCopy(position);
+        if (copy < 1 || copy > m_count) {
+            return null;
+        }
+
+        Vector source = position.subtract(m_offset.multiply(copy));
+        return m_sourceRegion.contains(source) ? source : null;
+    }
+
+    /**
+     * Find the copy that contains the position
+     *
+     * @param position
+     * @return
+     */
+    private int getCopy(Vector position) {
+        int[] offset = new int[]{m_offset.getBlockX(), m_offset.getBlockY(), m_offset.getBlockZ()};
+        int[] pos = new int[]{position.getBlockX(), position.getBlockY(), position.getBlockZ()};
+        int[] min = new int[]{m_sourceMin.getBlockX(), m_sourceMin.getBlockY(), m_sourceMin.getBlockZ()};
+        int[] max = new int[]{m_sourceMax.getBlockX(), m_sourceMax.getBlockY(), m_sourceMax.getBlockZ()};
+
+        for (int i = 0; i < offset.length; i++) {
+            if (offset[i] > 0) {
+                return (int) Math.floor((double) (pos[i] - min[i]) / offset[i]);
+            } else if (offset[i] < 0) {
+                return (int) Math.floor((double) (max[i] - pos[i]) / -offset[i]);
+            }
+        }
+
+        return m_count;
+    }
+
+    /**
+     * Entity in one of the copies
+     */
+    private class StackedEntity implements Entity {
+
+        private final Location m_location;
+
+        private final BaseEntity m_state;
+
+        public StackedEntity(Location location, Vector shift, BaseEntity state) {
+            m_location = new Location(StackedClipboard.this, location.toVector().add(shift),
+                    location.getYaw(), location.getPitch());
+            m_state = state;
+        }
+
+        @Override
+        public BaseEntity getState() {
+            return new BaseEntity(m_state);
+        }
+
+        @Override
+        public Location getLocation() {
+            return m_location;
+        }
+
+        @Override
+        public Extent getExtent() {
+            return StackedClipboard.this;
+        }
+
+        @Override
+        public boolean remove() {
+            return false;
+        }
+
+        @Override
+        public <T> T getFacet(Class<? extends T> cls) {
+            return null;
+        }
+    }
+}
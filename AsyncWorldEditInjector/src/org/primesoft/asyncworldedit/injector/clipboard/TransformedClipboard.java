@@ -0,0 +1,148 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.injector.clipboard;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.command.FlattenedClipboardTransform;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.extent.transform.BlockTransformExtent;
+import com.sk89q.worldedit.function.entity.ExtentEntityCopy;
+import com.sk89q.worldedit.math.transform.Transform;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.world.registry.WorldData;
+import java.util.List;
+
+/**
+ * View of a clipboard with a transform (rotate, flip) applied. The blocks are
+ * transformed when they are read so the transform can be baked (for example
+ * when saving) without creating a second copy of the clipboard.
+ *
+ * @author SBPrime
+ */
+public class TransformedClipboard extends ClipboardView {
+
+    /**
+     * The original clipboard
+     */
+    private final Clipboard m_original;
+
+    /**
+     * The original clipboard region
+     */
+    private final Region m_originalRegion;
+
+    /**
+     * The original clipboard with the block transform
+     */
+    private final BlockTransformExtent m_extent;
+
+    /**
+     * The transform
+     */
+    private final Transform m_transform;
+
+    /**
+     * Transform from this view to the original clipboard
+     */
+    private final Transform m_inverse;
+
+    /**
+     * The transform origin
+     */
+    private final Vector m_center;
+
+    /**
+     * The transformed entities (lazy created)
+     */
+    private Clipboard m_entities;
+
+    public TransformedClipboard(Clipboard original, Transform transform, WorldData worldData) {
+        super(FlattenedClipboardTransform.transform(original, transform, worldData).getTransformedRegion(),
+                original.getOrigin());
+
+        m_original = original;
+        m_originalRegion = original.getRegion();
+        m_extent = new BlockTransformExtent(original, transform, worldData.getBlockRegistry());
+        m_transform = transform;
+        m_inverse = transform.inverse();
+        m_center = original.getOrigin();
+    }
+
+    @Override
+    protected BaseBlock getSourceBlock(Vector position) {
+        Vector source = m_inverse.apply(position.subtract(m_center)).add(m_center).round();
+        if (!m_originalRegion.contains(source)) {
+            return null;
+        }
+
+        return m_extent.getBlock(source);
+    }
+
+    /**
+     * Get the transformed entities. The entities are few so they are copied
+     * on first use.
+     *
+     * @return
+     */
+    @Override
+    protected List<? extends Entity> getSourceEntities() {
+        if (m_entities == null) {
+            Clipboard entities = new BlockArrayClipboard(new CuboidRegion(m_center, m_center));
+            ExtentEntityCopy copy = new ExtentEntityCopy(m_center, entities, m_center, m_transform);
+            for (Entity entity : m_original.getEntities()) {
+                try {
+                    copy.apply(entity);
+                } catch (WorldEditException ex) {
+                    //Entity could not be copied, skip it
+                }
+            }
+
+            m_entities = entities;
+        }
+
+        return m_entities.getEntities();
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.injector.schematic;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import org.primesoft.asyncworldedit.injector.classfactory.IWorkerPool;
+
+/**
+ * GZIP input stream that decompresses the blocks written by
+ * {@link PooledGzipOutputStream} in parallel on the worker pool. Other GZIP
+ * streams (legacy schematic files) are read using the standard GZIP reader.
+ *
+ * @author SBPrime
+ */
+public class PooledGzipInputStream extends InputStream {
+
+    /**
+     * The compressed stream
+     */
+    private final DataInputStream m_in;
+
+    /**
+     * The legacy GZIP stream, null if the stream is block compressed
+     */
+    private final GZIPInputStream m_legacy;
+
+    /**
+     * The worker pool
+     */
+    private final IWorkerPool m_pool;
+
+    /**
+     * Maximum number of blocks decompressed at once
+     */
+    private final int m_maxPending;
+
+    /**
+     * The blocks that are decompressed in the read order
+     */
+    private final LinkedList<Future<byte[]>> m_pending = new LinkedList<Future<byte[]>>();
+
+    /**
+     * The current block
+     */
+    private byte[] m_block = new byte[0];
+
+    /**
+     * Position in the current block
+     */
+    private int m_position;
+
+    /**
+     * All the blocks are read from the compressed stream
+     */
+    private boolean m_isEof;
+
+    public PooledGzipInputStream(InputStream in, IWorkerPool pool) throws IOException {
+        PushbackInputStream pis = new PushbackInputStream(in, PooledGzipOutputStream.HEADER_SIZE);
+        byte[] header = new byte[PooledGzipOutputStream.HEADER_SIZE];
+        int size = 0;
+        while (size < header.length) {
+            int read = pis.read(header, size, header.length - size);
+            if (read < 0) {
+                break;
+            }
+            size += read;
+        }
+        pis.unread(header, 0, size);
+
+        m_pool = pool;
+        m_maxPending = Math.max(1, pool.getSize()) * 2;
+        if (size == header.length && isBlockHeader(header)) {
+            m_in = new DataInputStream(pis);
+            m_legacy = null;
+        } else {
+            m_in = null;
+            m_legacy = new GZIPInputStream(pis);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (m_legacy != null) {
+            return m_legacy.read();
+        }
+
+        if (!nextBlock()) {
+            return -1;
+        }
+
+        return m_block[m_position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (m_legacy != null) {
+            return m_legacy.read(b, off, len);
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+
+        int size = Math.min(len, m_block.length - m_position);
+        System.arraycopy(m_block, m_position, b, off, size);
+        m_position += size;
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> f : m_pending) {
+            f.cancel(true);
+        }
+        m_pending.clear();
+
+        if (m_legacy != null) {
+            m_legacy.close();
+        } else {
+            m_in.close();
+        }
+    }
+
+    /**
+     * Make sure that there is data in the current block
+     *
+     * @return false if there is no more data
+     * @throws IOException
+     */
+    private boolean nextBlock() throws IOException {
+        while (m_position >= m_block.length) {
+            while (!m_isEof && m_pending.size() < m_maxPending) {
+                readBlock();
+            }
+
+            if (m_pending.isEmpty()) {
+                return false;
+            }
+
+            try {
+                m_block = m_pending.removeFirst().get();
+                m_position = 0;
+            } catch (InterruptedException ex) {
+                throw new InterruptedIOException("Schematic decompression interrupted");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Unable to decompress the schematic", cause);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Read the next compressed block and send it to the decompress task
+     *
+     * @throws IOException
+     */
+    private void readBlock() throws IOException {
+        byte[] header = new byte[PooledGzipOutputStream.HEADER_SIZE];
+        int first = m_in.read();
+        if (first < 0) {
+            m_isEof = true;
+            return;
+        }
+
+        header[0] = (byte) first;
+        m_in.readFully(header, 1, header.length - 1);
+        if (!isBlockHeader(header)) {
+            throw new IOException("Invalid schematic block header");
+        }
+
+        int size = getInt(header, 16);
+        if (size < PooledGzipOutputStream.HEADER_SIZE + PooledGzipOutputStream.TRAILER_SIZE) {
+            throw new IOException("Invalid schematic block size");
+        }
+
+        final byte[] data = new byte[size - PooledGzipOutputStream.HEADER_SIZE];
+        try {
+            m_in.readFully(data);
+        } catch (EOFException ex) {
+            throw new IOException("Unexpected end of the schematic file", ex);
+        }
+
+        m_pending.add(m_pool.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return decompress(data);
+            }
+        }));
+    }
+
+    /**
+     * Decompress a single block (the member without the header)
+     *
+     * @param data
+     * @return
+     * @throws IOException
+     */
+    private static byte[] decompress(byte[] data) throws IOException {
+        int length = data.length - PooledGzipOutputStream.TRAILER_SIZE;
+        int crc = getInt(data, length);
+        int size = getInt(data, length + 4);
+        if (size < 0 || size > PooledGzipOutputStream.BLOCK_SIZE) {
+            throw new IOException("Invalid schematic block size");
+        }
+
+        byte[] result = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data, 0, length);
+            int position = 0;
+            while (position < size) {
+                int read = inflater.inflate(result, position, size - position);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Schematic block is truncated");
+                }
+                position += read;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Schematic block is corrupted", ex);
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 check = new CRC32();
+        check.update(result);
+        if ((int) check.getValue() != crc) {
+            throw new IOException("Schematic block checksum mismatch");
+        }
+
+        return result;
+    }
+
+    /**
+     * Check if the GZIP member header contains the block size field
+     *
+     * @param header
+     * @return
+     */
+    private static boolean isBlockHeader(byte[] header) {
+        return header[0] == 0x1f && header[1] == (byte) 0x8b && header[2] == 8
+                && (header[3] & 0x04) != 0 && header[10] == 8 && header[11] == 0
+                && header[12] == 'A' && header[13] == 'W'
+                && header[14] == 4 && header[15] == 0;
+    }
+
+    /**
+     * Read little endian int
+     *
+     * @param data
+     * @param offset
+     * @return
+     */
+    private static int getInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8
+                | (data[offset + 2] & 0xff) << 16 | (data[offset + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.injector.schematic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import org.primesoft.asyncworldedit.injector.classfactory.IWorkerPool;
+
+/**
+ * GZIP output stream that compresses the data on the worker pool. The data is
+ * split into blocks that are compressed independently as separate GZIP
+ * members, so the blocks can be compressed (and decompressed) in parallel.
+ * Concatenated members are a valid GZIP stream, the output can be read by any
+ * GZIP reader.
+ *
+ * @author SBPrime
+ */
+public class PooledGzipOutputStream extends OutputStream {
+
+    /**
+     * Size of a single uncompressed block
+     */
+    final static int BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * Size of the member header
+     */
+    final static int HEADER_SIZE = 20;
+
+    /**
+     * Size of the member trailer
+     */
+    final static int TRAILER_SIZE = 8;
+
+    /**
+     * The output stream
+     */
+    private final OutputStream m_out;
+
+    /**
+     * The worker pool
+     */
+    private final IWorkerPool m_pool;
+
+    /**
+     * Maximum number of blocks compressed at once
+     */
+    private final int m_maxPending;
+
+    /**
+     * The blocks that are compressed in the write order
+     */
+    private final LinkedList<Future<byte[]>> m_pending = new LinkedList<Future<byte[]>>();
+
+    /**
+     * The buffer that is filled
+     */
+    private byte[] m_buffer = new byte[BLOCK_SIZE];
+
+    /**
+     * Number of bytes in the buffer
+     */
+    private int m_position;
+
+    /**
+     * Was any block written
+     */
+    private boolean m_hasBlocks;
+
+    /**
+     * Is the stream closed
+     */
+    private boolean m_isClosed;
+
+    public PooledGzipOutputStream(OutputStream out, IWorkerPool pool) {
+        m_out = out;
+        m_pool = pool;
+        m_maxPending = Math.max(1, pool.getSize()) * 2;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (m_position == m_buffer.length) {
+            compressBuffer();
+        }
+
+        m_buffer[m_position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (m_position == m_buffer.length) {
+                compressBuffer();
+            }
+
+            int size = Math.min(len, m_buffer.length - m_position);
+            System.arraycopy(b, off, m_buffer, m_position, size);
+            m_position += size;
+            off += size;
+            len -= size;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        m_out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (m_isClosed) {
+            return;
+        }
+        m_isClosed = true;
+
+        try {
+            if (m_position > 0 || !m_hasBlocks) {
+                compressBuffer();
+            }
+            while (!m_pending.isEmpty()) {
+                writeBlock();
+            }
+            m_out.flush();
+        } finally {
+            for (Future<byte[]> f : m_pending) {
+                f.cancel(true);
+            }
+            m_out.close();
+        }
+    }
+
+    /**
+     * Send the buffer to the compress task
+     *
+     * @throws IOException
+     */
+    private void compressBuffer() throws IOException {
+        if (m_pending.size() >= m_maxPending) {
+            writeBlock();
+        }
+
+        final byte[] data = m_buffer;
+        final int length = m_position;
+        m_buffer = new byte[BLOCK_SIZE];
+        m_position = 0;
+        m_hasBlocks = true;
+
+        m_pending.add(m_pool.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return compress(data, length);
+            }
+        }));
+    }
+
+    /**
+     * Wait for the oldest block and write it to the output
+     *
+     * @throws IOException
+     */
+    private void writeBlock() throws IOException {
+        Future<byte[]> pending = m_pending.removeFirst();
+        try {
+            m_out.write(pending.get());
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Schematic compression interrupted");
+        } catch (ExecutionException ex) {
+            throw new IOException("Unable to compress the schematic", ex.getCause());
+        }
+    }
+
+    /**
+     * Compress the data as a single GZIP member. The header contains the
+     * "AW" extra field with the size of the member.
+     *
+     * @param data
+     * @param length
+     * @return
+     */
+    static byte[] compress(byte[] data, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + HEADER_SIZE + TRAILER_SIZE);
+        out.write(new byte[]{
+            0x1f, (byte) 0x8b, Deflater.DEFLATED, 0x04, //magic, method, FEXTRA
+            0, 0, 0, 0, 0, (byte) 0xff, //mtime, flags, OS
+            8, 0, 'A', 'W', 4, 0, //extra length, subfield id and length
+            0, 0, 0, 0 //member size
+        }, 0, HEADER_SIZE);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int size = deflater.deflate(buffer);
+                out.write(buffer, 0, size);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeInt(out, (int) crc.getValue());
+        writeInt(out, length);
+
+        byte[] result = out.toByteArray();
+        int size = result.length;
+        result[16] = (byte) size;
+        result[17] = (byte) (size >> 8);
+        result[18] = (byte) (size >> 16);
+        result[19] = (byte) (size >> 24);
+
+        return result;
+    }
+
+    /**
+     * Write little endian int
+     *
+     * @param out
+     * @param value
+     */
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >> 8);
+        out.write(value >> 16);
+        out.write(value >> 24);
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.injector.schematic;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import org.primesoft.asyncworldedit.injector.core.InjectorCore;
+
+/**
+ * Cache of the decoded schematic files. The entries are keyed by the canonical
+ * file path and validated using the file modification time and size. The
+ * block data is kept outside of the java heap and shared by all the
+ * clipboards created from the entry. Parallel loads of the same file wait for
+ * a single read.
+ *
+ * @author SBPrime
+ */
+public class SchematicCache {
+
+    /**
+     * Default cache size (64MB)
+     */
+    private final static long DEFAULT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The cache instance
+     */
+    private final static SchematicCache s_instance = new SchematicCache();
+
+    /**
+     * Get the cache instance
+     *
+     * @return
+     */
+    public static SchematicCache getInstance() {
+        return s_instance;
+    }
+
+    /**
+     * The cached schematics in the LRU order
+     */
+    private final LinkedHashMap<String, CacheEntry> m_entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+    /**
+     * The running file reads, by file path and version
+     */
+    private final ConcurrentHashMap<String, FutureTask<StreamedSchematic>> m_loading
+            = new ConcurrentHashMap<String, FutureTask<StreamedSchematic>>();
+
+    /**
+     * The MTA mutex
+     */
+    private final Object m_mutex = new Object();
+
+    /**
+     * Maximum size of the cached block data
+     */
+    private long m_maxSize = DEFAULT_SIZE;
+
+    /**
+     * Current size of the cached block data
+     */
+    private long m_size;
+
+    private SchematicCache() {
+    }
+
+    /**
+     * Set the maximum size of the cached block data, 0 disables the cache
+     *
+     * @param maxSize
+     */
+    public void setMaxSize(long maxSize) {
+        synchronized (m_mutex) {
+            m_maxSize = Math.max(0, maxSize);
+            evict();
+        }
+    }
+
+    /**
+     * Remove all the cached schematics
+     */
+    public void clear() {
+        synchronized (m_mutex) {
+            m_entries.clear();
+            m_size = 0;
+        }
+    }
+
+    /**
+     * Get the decoded schematic, the file is read only if it is not cached
+     * or it was modified
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public StreamedSchematic get(final File file) throws IOException {
+        final String key = file.getCanonicalPath();
+        final long modified = file.lastModified();
+        final long length = file.length();
+
+        synchronized (m_mutex) {
+            CacheEntry entry = m_entries.get(key);
+            if (entry != null) {
+                if (entry.isValid(modified, length)) {
+                    return entry.getSchematic();
+                }
+
+                m_entries.remove(key);
+                m_size -= entry.getSize();
+            }
+        }
+
+        FutureTask<StreamedSchematic> task = new FutureTask<StreamedSchematic>(new Callable<StreamedSchematic>() {
+            @Override
+            public StreamedSchematic call() throws Exception {
+                return load(file, key, modified, length);
+            }
+        });
+
+        String loadKey = key + ":" + modified + ":" + length;
+        FutureTask<StreamedSchematic> loading = m_loading.putIfAbsent(loadKey, task);
+        if (loading == null) {
+            loading = task;
+            try {
+                task.run();
+            } finally {
+                m_loading.remove(loadKey, task);
+            }
+        }
+
+        try {
+            return loading.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the schematic");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Read the schematic file and add it to the cache
+     *
+     * @param file
+     * @param key
+     * @param modified
+     * @param length
+     * @return
+     * @throws IOException
+     */
+    private StreamedSchematic load(File file, String key, long modified, long length) throws IOException {
+        StreamedSchematic schematic;
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            schematic = StreamedSchematic.read(fis, InjectorCore.getInstance().getClassFactory().getWorkerPool());
+        } finally {
+            fis.close();
+        }
+
+        synchronized (m_mutex) {
+            long size = schematic.getMemorySize();
+            if (size > m_maxSize) {
+                return schematic;
+            }
+
+            CacheEntry entry = new CacheEntry(schematic.toDirect(), modified, length);
+            CacheEntry old = m_entries.put(key, entry);
+            if (old != null) {
+                m_size -= old.getSize();
+            }
+            m_size += entry.getSize();
+            evict();
+
+            return entry.getSchematic();
+        }
+    }
+
+    /**
+     * Remove the least recently used entries until the cache fits the size
+     * limit
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, CacheEntry>> it = m_entries.entrySet().iterator();
+        while (m_size > m_maxSize && it.hasNext()) {
+            m_size -= it.next().getValue().getSize();
+            it.remove();
+        }
+    }
+
+    /**
+     * Single cached schematic file
+     */
+    private static class CacheEntry {
+
+        private final StreamedSchematic m_schematic;
+        private final long m_modified;
+        private final long m_length;
+
+        public CacheEntry(StreamedSchematic schematic, long modified, long length) {
+            m_schematic = schematic;
+            m_modified = modified;
+            m_length = length;
+        }
+
+        public StreamedSchematic getSchematic() {
+            return m_schematic;
+        }
+
+        public long getSize() {
+            return m_schematic.getMemorySize();
+        }
+
+        public boolean isValid(long modified, long length) {
+            return m_modified == modified && m_length == length;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.injector.schematic;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.extent.clipboard.io.NBTConversions;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.util.Location;
+import java.util.ArrayList;
+import java.util.List;
+import org.primesoft.asyncworldedit.injector.clipboard.ClipboardView;
+
+/**
+ * Clipboard backed by a shared cached schematic. The schematic is never
+ * modified, the changed blocks are stored in the view. The entities are
+ * created from the shared entity tags.
+ *
+ * @author SBPrime
+ */
+public class SchematicClipboard extends ClipboardView {
+
+    /**
+     * The shared schematic
+     */
+    private final StreamedSchematic m_schematic;
+
+    /**
+     * The region minimum point
+     */
+    private final Vector m_min;
+
+    /**
+     * The schematic entities
+     */
+    private final List<Entity> m_entities = new ArrayList<Entity>();
+
+    public SchematicClipboard(StreamedSchematic schematic) {
+        super(new CuboidRegion(schematic.getOrigin(),
+                schematic.getOrigin().add(schematic.getWidth(), schematic.getHeight(), schematic.getLength()).subtract(Vector.ONE)),
+                schematic.getOrigin().subtract(schematic.getOffset()));
+
+        m_schematic = schematic;
+        m_min = schematic.getOrigin();
+
+        for (CompoundTag tag : schematic.getEntities()) {
+            String id = tag.getString("id");
+            if (!id.isEmpty()) {
+                m_entities.add(new SchematicEntity(
+                        NBTConversions.toLocation(this, tag.getListTag("Pos"), tag.getListTag("Rotation")),
+                        new BaseEntity(id, tag)));
+            }
+        }
+    }
+
+    @Override
+    protected BaseBlock getSourceBlock(Vector position) {
+        Vector v = position.subtract(m_min);
+        return m_schematic.getBlock(v.getBlockX(), v.getBlockY(), v.getBlockZ());
+    }
+
+    @Override
+    protected List<? extends Entity> getSourceEntities() {
+        return m_entities;
+    }
+
+    /**
+     * Entity stored in the schematic
+     */
+    private class SchematicEntity implements Entity {
+
+        private final Location m_location;
+
+        private final BaseEntity m_state;
+
+        public SchematicEntity(Location location, BaseEntity state) {
+            m_location = location;
+            m_state = state;
+        }
+
+        @Override
+        public BaseEntity getState() {
+            return new BaseEntity(m_state);
+        }
+
+        @Override
+        public Location getLocation() {
+            return m_location;
+        }
+
+        @Override
+        public Extent getExtent() {
+            return SchematicClipboard.this;
+        }
+
+        @Override
+        public boolean remove() {
+            return false;
+        }
+
+        @Override
+        public <T> T getFacet(Class<? extends T> cls) {
+            return null;
+        }
+    }
+}
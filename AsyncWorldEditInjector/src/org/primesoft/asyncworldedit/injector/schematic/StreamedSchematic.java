@@ -0,0 +1,488 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.injector.schematic;
+
+import com.sk89q.jnbt.ByteArrayTag;
+import com.sk89q.jnbt.ByteTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.DoubleTag;
+import com.sk89q.jnbt.FloatTag;
+import com.sk89q.jnbt.IntArrayTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.LongTag;
+import com.sk89q.jnbt.NBTConstants;
+import com.sk89q.jnbt.NBTUtils;
+import com.sk89q.jnbt.ShortTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.primesoft.asyncworldedit.injector.classfactory.IWorkerPool;
+
+/**
+ * MCEdit schematic decoded directly from the NBT stream. The blocks are kept
+ * in the raw byte arrays from the file instead of a BaseBlock per block.
+ * Instances are not modified after reading and can be shared.
+ *
+ * @author SBPrime
+ */
+public class StreamedSchematic {
+
+    private int m_width;
+    private int m_height;
+    private int m_length;
+    private int m_originX;
+    private int m_originY;
+    private int m_originZ;
+    private int m_offsetX;
+    private int m_offsetY;
+    private int m_offsetZ;
+    private String m_materials;
+    private List<CompoundTag> m_entities = new ArrayList<CompoundTag>();
+    private ByteBuffer m_blocks;
+    private ByteBuffer m_data;
+    private ByteBuffer m_addBlocks;
+    private Map<BlockVector, Map<String, Tag>> m_tileEntities = new HashMap<BlockVector, Map<String, Tag>>();
+
+    private StreamedSchematic() {
+    }
+
+    /**
+     * Create a read-only copy of the schematic with the block data stored
+     * outside of the java heap
+     *
+     * @return
+     */
+    public StreamedSchematic toDirect() {
+        StreamedSchematic result = new StreamedSchematic();
+        result.m_width = m_width;
+        result.m_height = m_height;
+        result.m_length = m_length;
+        result.m_originX = m_originX;
+        result.m_originY = m_originY;
+        result.m_originZ = m_originZ;
+        result.m_offsetX = m_offsetX;
+        result.m_offsetY = m_offsetY;
+        result.m_offsetZ = m_offsetZ;
+        result.m_materials = m_materials;
+        result.m_entities = Collections.unmodifiableList(m_entities);
+        result.m_blocks = toDirect(m_blocks);
+        result.m_data = toDirect(m_data);
+        result.m_addBlocks = toDirect(m_addBlocks);
+        result.m_tileEntities = Collections.unmodifiableMap(m_tileEntities);
+
+        return result;
+    }
+
+    private static ByteBuffer toDirect(ByteBuffer source) {
+        if (source == null) {
+            return null;
+        }
+
+        ByteBuffer result = ByteBuffer.allocateDirect(source.capacity());
+        result.put(source.duplicate());
+        result.clear();
+        return result.asReadOnlyBuffer();
+    }
+
+    /**
+     * Number of bytes used by the block data
+     *
+     * @return
+     */
+    public long getMemorySize() {
+        return m_blocks.capacity() + m_data.capacity()
+                + (m_addBlocks != null ? m_addBlocks.capacity() : 0);
+    }
+
+    /**
+     * The schematic entities, the tags are shared and never modified
+     *
+     * @return
+     */
+    public List<CompoundTag> getEntities() {
+        return Collections.unmodifiableList(m_entities);
+    }
+
+    /**
+     * Read the schematic from a gzip compressed stream
+     *
+     * @param is
+     * @param pool the pool used to decompress the stream
+     * @return
+     * @throws IOException
+     */
+    public static StreamedSchematic read(InputStream is, IWorkerPool pool) throws IOException {
+        DataInputStream stream = new DataInputStream(new BufferedInputStream(new PooledGzipInputStream(is, pool)));
+        StreamedSchematic result = new StreamedSchematic();
+
+        if (stream.readByte() != NBTConstants.TYPE_COMPOUND
+                || !"Schematic".equals(stream.readUTF())) {
+            throw new IOException("Tag \"Schematic\" does not exist or is not first");
+        }
+
+        while (true) {
+            int type = stream.readByte() & 0xff;
+            if (type == NBTConstants.TYPE_END) {
+                break;
+            }
+
+            String name = stream.readUTF();
+            if (type == NBTConstants.TYPE_SHORT) {
+                result.setShort(name, stream.readShort());
+            } else if (type == NBTConstants.TYPE_INT) {
+                result.setInt(name, stream.readInt());
+            } else if (type == NBTConstants.TYPE_STRING && "Materials".equals(name)) {
+                result.m_materials = stream.readUTF();
+            } else if (type == NBTConstants.TYPE_BYTE_ARRAY && "Blocks".equals(name)) {
+                result.m_blocks = readBuffer(stream);
+            } else if (type == NBTConstants.TYPE_BYTE_ARRAY && "Data".equals(name)) {
+                result.m_data = readBuffer(stream);
+            } else if (type == NBTConstants.TYPE_BYTE_ARRAY && "AddBlocks".equals(name)) {
+                result.m_addBlocks = readBuffer(stream);
+            } else if (type == NBTConstants.TYPE_LIST && "Entities".equals(name)) {
+                for (Tag tag : ((ListTag) readPayload(stream, type)).getValue()) {
+                    if (tag instanceof CompoundTag) {
+                        result.m_entities.add((CompoundTag) tag);
+                    }
+                }
+            } else if (type == NBTConstants.TYPE_LIST && "TileEntities".equals(name)) {
+                result.readTileEntities((ListTag) readPayload(stream, type));
+            } else {
+                skipPayload(stream, type);
+            }
+        }
+
+        result.validate();
+        return result;
+    }
+
+    public int getWidth() {
+        return m_width;
+    }
+
+    public int getHeight() {
+        return m_height;
+    }
+
+    public int getLength() {
+        return m_length;
+    }
+
+    /**
+     * The WorldEdit offset (paste position relative to the player)
+     *
+     * @return
+     */
+    public Vector getOffset() {
+        return new Vector(m_offsetX, m_offsetY, m_offsetZ);
+    }
+
+    /**
+     * The WorldEdit origin (minimum point of the copied region)
+     *
+     * @return
+     */
+    public Vector getOrigin() {
+        return new Vector(m_originX, m_originY, m_originZ);
+    }
+
+    /**
+     * Get the block at local coordinates
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public BaseBlock getBlock(int x, int y, int z) {
+        int index = y * m_width * m_length + z * m_width + x;
+        BaseBlock block = new BaseBlock(getBlockType(index), m_data.get(index));
+        if (!m_tileEntities.isEmpty()) {
+            Map<String, Tag> values = m_tileEntities.get(new BlockVector(x, y, z));
+            if (values != null) {
+                block.setNbtData(new CompoundTag(values));
+            }
+        }
+
+        return block;
+    }
+
+    /**
+     * Get the block id at local coordinates without creating the block
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getBlockType(int x, int y, int z) {
+        return getBlockType(y * m_width * m_length + z * m_width + x);
+    }
+
+    private int getBlockType(int index) {
+        int id = m_blocks.get(index) & 0xff;
+        if (m_addBlocks != null && (index >> 1) < m_addBlocks.capacity()) {
+            int add = m_addBlocks.get(index >> 1);
+            id |= (index & 1) == 0 ? (add & 0x0F) << 8 : (add & 0xF0) << 4;
+        }
+        return id;
+    }
+
+    private void setShort(String name, short value) {
+        if ("Width".equals(name)) {
+            m_width = value;
+        } else if ("Height".equals(name)) {
+            m_height = value;
+        } else if ("Length".equals(name)) {
+            m_length = value;
+        }
+    }
+
+    private void setInt(String name, int value) {
+        if ("WEOriginX".equals(name)) {
+            m_originX = value;
+        } else if ("WEOriginY".equals(name)) {
+            m_originY = value;
+        } else if ("WEOriginZ".equals(name)) {
+            m_originZ = value;
+        } else if ("WEOffsetX".equals(name)) {
+            m_offsetX = value;
+        } else if ("WEOffsetY".equals(name)) {
+            m_offsetY = value;
+        } else if ("WEOffsetZ".equals(name)) {
+            m_offsetZ = value;
+        }
+    }
+
+    private void validate() throws IOException {
+        if (m_materials != null && !m_materials.equals("Alpha")) {
+            throw new IOException("Schematic file is not an Alpha schematic");
+        }
+        if (m_blocks == null || m_data == null) {
+            throw new IOException("Schematic file is missing the Blocks or Data tag");
+        }
+
+        long volume = (long) m_width * m_height * m_length;
+        if (m_width <= 0 || m_height <= 0 || m_length <= 0
+                || m_blocks.capacity() < volume || m_data.capacity() < volume) {
+            throw new IOException("Schematic file has invalid dimensions");
+        }
+    }
+
+    private void readTileEntities(ListTag tileEntities) {
+        for (Tag tag : tileEntities.getValue()) {
+            if (!(tag instanceof CompoundTag)) {
+                continue;
+            }
+
+            int x = 0;
+            int y = 0;
+            int z = 0;
+            Map<String, Tag> values = new HashMap<String, Tag>();
+            for (Map.Entry<String, Tag> entry : ((CompoundTag) tag).getValue().entrySet()) {
+                String key = entry.getKey();
+                Tag value = entry.getValue();
+                if (value instanceof IntTag) {
+                    if (key.equals("x")) {
+                        x = ((IntTag) value).getValue();
+                    } else if (key.equals("y")) {
+                        y = ((IntTag) value).getValue();
+                    } else if (key.equals("z")) {
+                        z = ((IntTag) value).getValue();
+                    }
+                }
+                values.put(key, value);
+            }
+
+            m_tileEntities.put(new BlockVector(x, y, z), values);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream stream) throws IOException {
+        int length = stream.readInt();
+        byte[] result = new byte[length];
+        stream.readFully(result);
+        return result;
+    }
+
+    private static ByteBuffer readBuffer(DataInputStream stream) throws IOException {
+        return ByteBuffer.wrap(readBytes(stream));
+    }
+
+    /**
+     * Skip the tag payload without decoding it
+     *
+     * @param stream
+     * @param type
+     * @throws IOException
+     */
+    private static void skipPayload(DataInputStream stream, int type) throws IOException {
+        switch (type) {
+            case NBTConstants.TYPE_END:
+                return;
+            case NBTConstants.TYPE_BYTE:
+                skip(stream, 1);
+                return;
+            case NBTConstants.TYPE_SHORT:
+                skip(stream, 2);
+                return;
+            case NBTConstants.TYPE_INT:
+            case NBTConstants.TYPE_FLOAT:
+                skip(stream, 4);
+                return;
+            case NBTConstants.TYPE_LONG:
+            case NBTConstants.TYPE_DOUBLE:
+                skip(stream, 8);
+                return;
+            case NBTConstants.TYPE_BYTE_ARRAY:
+                skip(stream, stream.readInt());
+                return;
+            case NBTConstants.TYPE_STRING:
+                skip(stream, stream.readUnsignedShort());
+                return;
+            case NBTConstants.TYPE_LIST: {
+                int childType = stream.readByte() & 0xff;
+                int length = stream.readInt();
+                for (int i = 0; i < length; i++) {
+                    skipPayload(stream, childType);
+                }
+                return;
+            }
+            case NBTConstants.TYPE_COMPOUND:
+                while (true) {
+                    int childType = stream.readByte() & 0xff;
+                    if (childType == NBTConstants.TYPE_END) {
+                        return;
+                    }
+                    skip(stream, stream.readUnsignedShort());
+                    skipPayload(stream, childType);
+                }
+            case NBTConstants.TYPE_INT_ARRAY:
+                skip(stream, 4L * stream.readInt());
+                return;
+            default:
+                throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    private static void skip(DataInputStream stream, long count) throws IOException {
+        while (count > 0) {
+            long skipped = stream.skip(count);
+            if (skipped <= 0) {
+                stream.readByte();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Decode the tag payload
+     *
+     * @param stream
+     * @param type
+     * @return
+     * @throws IOException
+     */
+    private static Tag readPayload(DataInputStream stream, int type) throws IOException {
+        switch (type) {
+            case NBTConstants.TYPE_BYTE:
+                return new ByteTag(stream.readByte());
+            case NBTConstants.TYPE_SHORT:
+                return new ShortTag(stream.readShort());
+            case NBTConstants.TYPE_INT:
+                return new IntTag(stream.readInt());
+            case NBTConstants.TYPE_LONG:
+                return new LongTag(stream.readLong());
+            case NBTConstants.TYPE_FLOAT:
+                return new FloatTag(stream.readFloat());
+            case NBTConstants.TYPE_DOUBLE:
+                return new DoubleTag(stream.readDouble());
+            case NBTConstants.TYPE_BYTE_ARRAY:
+                return new ByteArrayTag(readBytes(stream));
+            case NBTConstants.TYPE_STRING:
+                return new StringTag(stream.readUTF());
+            case NBTConstants.TYPE_LIST: {
+                int childType = stream.readByte() & 0xff;
+                int length = stream.readInt();
+                List<Tag> tags = new ArrayList<Tag>(length);
+                for (int i = 0; i < length; i++) {
+                    tags.add(readPayload(stream, childType));
+                }
+                return new ListTag(NBTUtils.getTypeClass(childType), tags);
+            }
+            case NBTConstants.TYPE_COMPOUND: {
+                Map<String, Tag> values = new HashMap<String, Tag>();
+                while (true) {
+                    int childType = stream.readByte() & 0xff;
+                    if (childType == NBTConstants.TYPE_END) {
+                        return new CompoundTag(values);
+                    }
+                    String name = stream.readUTF();
+                    values.put(name, readPayload(stream, childType));
+                }
+            }
+            case NBTConstants.TYPE_INT_ARRAY: {
+                int length = stream.readInt();
+                int[] data = new int[length];
+                for (int i = 0; i < length; i++) {
+                    data[i] = stream.readInt();
+                }
+                return new IntArrayTag(data);
+            }
+            default:
+                throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+}
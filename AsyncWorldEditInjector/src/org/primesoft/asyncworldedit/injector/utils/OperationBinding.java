@@ -0,0 +1,134 @@
+/*
+ * AsyncWorldEdit a performance improvement plugin for Minecraft WorldEdit plugin.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) AsyncWorldEdit contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.asyncworldedit.injector.utils;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.function.operation.Operation;
+import com.sk89q.worldedit.regions.Region;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Explicit binding of an operation to its edit session. When an operation is
+ * bound the operation processor does not need to scan the operation to find
+ * the edit session, the operation is rebuilt for the async edit session using
+ * the provided factory.
+ *
+ * Usage: build the operation using the factory, bind it and pass it to
+ * Operations.complete. The region is copied when the operation is bound, the
+ * same way the scanned operations get a copy of their regions.
+ *
+ * @author SBPrime
+ */
+public class OperationBinding {
+
+    /**
+     * The bound operations
+     */
+    private static final Map<Operation, OperationBinding> s_bindings
+            = Collections.synchronizedMap(new WeakHashMap<Operation, OperationBinding>());
+
+    /**
+     * Bind the operation to the edit session
+     *
+     * @param op The operation created using the factory
+     * @param session The edit session used to create the operation
+     * @param region The region used to create the operation
+     * @param factory The operation factory
+     */
+    public static void bind(Operation op, EditSession session, Region region, OperationFactory factory) {
+        if (op == null || session == null || region == null || factory == null) {
+            return;
+        }
+
+        s_bindings.put(op, new OperationBinding(session, region.clone(), factory));
+    }
+
+    /**
+     * Get and remove the operation binding
+     *
+     * @param op
+     * @return null if the operation is not bound
+     */
+    public static OperationBinding remove(Operation op) {
+        if (op == null) {
+            return null;
+        }
+
+        return s_bindings.remove(op);
+    }
+
+    /**
+     * The edit session the operation was created for
+     */
+    private final EditSession m_session;
+
+    /**
+     * The operation factory
+     */
+    private final OperationFactory m_factory;
+
+    /**
+     * The copy of the bound region
+     */
+    private final Region m_region;
+
+    private OperationBinding(EditSession session, Region region, OperationFactory factory) {
+        m_session = session;
+        m_region = region;
+        m_factory = factory;
+    }
+
+    public EditSession getSession() {
+        return m_session;
+    }
+
+    /**
+     * Create the operation for the provided edit session
+     *
+     * @param session
+     * @return
+     */
+    public Operation create(EditSession session) {
+        return m_factory.create(session, m_region);
+    }
+}